@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Opens books on temporary folders for the benchmarks, running on the JVM.
+ *
+ * @author pakoito
+ */
+final class BenchmarkBooks {
+    private BenchmarkBooks() {
+    }
+
+    static void init() {
+        RxPaperBook.init(new ContextWrapper(null) {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+        });
+    }
+
+    static File createFolder() throws IOException {
+        final File folder = File.createTempFile("rxpaper", "bench");
+        if (!folder.delete() || !folder.mkdirs()) {
+            throw new IOException("Couldn't create " + folder);
+        }
+        return folder;
+    }
+
+    /**
+     * Opens a book running its operations on the calling thread, so only the library and disk
+     * costs are measured.
+     */
+    static RxPaperBook open(File folder) {
+        return open(folder, Schedulers.trampoline());
+    }
+
+    static RxPaperBook open(File folder, Scheduler scheduler) {
+        return RxPaperBook.withPath(folder.getAbsolutePath(), "bench", scheduler);
+    }
+
+    /**
+     * Opens a book on the given storage engine, either "paper" or "log".
+     */
+    static RxPaperBook open(File folder, String engine) {
+        if ("log".equals(engine)) {
+            return RxPaperBook.withStorage(
+                    new LogStorage(new File(folder, "bench").getAbsolutePath()),
+                    Schedulers.trampoline());
+        }
+        return open(folder);
+    }
+
+    static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    static Payload payload(int size) {
+        final byte[] data = new byte[size];
+        Arrays.fill(data, (byte) 42);
+        return new Payload("payload-" + size, data);
+    }
+
+    /**
+     * Value written by the benchmarks, with a configurable serialized size.
+     */
+    static final class Payload {
+        final String name;
+
+        final byte[] data;
+
+        Payload() {
+            this("", new byte[0]);
+        }
+
+        Payload(String name, byte[] data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+}
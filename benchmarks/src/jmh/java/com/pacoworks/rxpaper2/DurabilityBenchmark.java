@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Latency of a single write and of bursts of concurrent writes, saving each write on its own or in
+ * groups. Bursts write to either distinct keys or a few repeated ones.
+ *
+ * @author pakoito
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DurabilityBenchmark {
+    private static final int BURST_SIZE = 32;
+
+    @Param({"sync", "group"})
+    public String mode;
+
+    @Param({"1024"})
+    public int valueSize;
+
+    @Param({"32", "4"})
+    public int burstKeys;
+
+    private File folder;
+
+    private RxPaperBook book;
+
+    private BenchmarkBooks.Payload payload;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkBooks.init();
+        folder = BenchmarkBooks.createFolder();
+        final RxPaperBook io = BenchmarkBooks.open(folder, Schedulers.io());
+        book = "group".equals(mode)
+                ? io.withGroupCommit(1, TimeUnit.MILLISECONDS, 8, Schedulers.computation())
+                : io;
+        payload = BenchmarkBooks.payload(valueSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkBooks.delete(folder);
+    }
+
+    @Benchmark
+    public void write() {
+        book.write("key" + (next++ % 100), payload).blockingAwait();
+    }
+
+    @Benchmark
+    public void burst() {
+        final List<Completable> writes = new ArrayList<>(BURST_SIZE);
+        for (int i = 0; i < BURST_SIZE; i++) {
+            writes.add(book.write("burst" + i % burstKeys, payload));
+        }
+        Completable.merge(writes).blockingAwait();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Cost of publishing an update with many live observers, each one observing a different key.
+ * <p/>
+ * publish measures the in-memory fan-out alone, write adds the cost of saving the value.
+ *
+ * @author pakoito
+ */
+@State(Scope.Benchmark)
+public class ObserveBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int observers;
+
+    private File folder;
+
+    private RxPaperBook book;
+
+    private CompositeDisposable subscriptions;
+
+    private BenchmarkBooks.Payload payload;
+
+    private long received;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkBooks.init();
+        folder = BenchmarkBooks.createFolder();
+        book = BenchmarkBooks.open(folder);
+        payload = BenchmarkBooks.payload(16);
+        subscriptions = new CompositeDisposable();
+        for (int i = 0; i < observers; i++) {
+            subscriptions.add(book.observe("key" + i, BenchmarkBooks.Payload.class,
+                    BackpressureStrategy.LATEST).subscribe(new Consumer<BenchmarkBooks.Payload>() {
+                        @Override
+                        public void accept(BenchmarkBooks.Payload value) {
+                            received++;
+                        }
+                    }));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        subscriptions.dispose();
+        BenchmarkBooks.delete(folder);
+    }
+
+    @Benchmark
+    public void publish() {
+        book.updates.publish("key0", payload);
+    }
+
+    @Benchmark
+    public void write() {
+        book.write("key0", payload).blockingAwait();
+    }
+}
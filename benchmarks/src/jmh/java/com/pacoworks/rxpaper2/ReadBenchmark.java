@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Throughput of reads, lookups and key listings for several value sizes and book sizes.
+ *
+ * @author pakoito
+ */
+@State(Scope.Benchmark)
+public class ReadBenchmark {
+    @Param({"16", "1024", "65536"})
+    public int valueSize;
+
+    @Param({"100", "1000"})
+    public int keyCount;
+
+    @Param({"paper", "log"})
+    public String engine;
+
+    private File folder;
+
+    private RxPaperBook book;
+
+    private RxPaperBook cachedBook;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkBooks.init();
+        folder = BenchmarkBooks.createFolder();
+        book = BenchmarkBooks.open(folder, engine);
+        cachedBook = book.withCache(keyCount);
+        final BenchmarkBooks.Payload payload = BenchmarkBooks.payload(valueSize);
+        for (int i = 0; i < keyCount; i++) {
+            book.write("key" + i, payload).blockingAwait();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkBooks.delete(folder);
+    }
+
+    private String nextKey() {
+        return "key" + (next++ % keyCount);
+    }
+
+    @Benchmark
+    public BenchmarkBooks.Payload read() {
+        return book.<BenchmarkBooks.Payload>read(nextKey()).blockingGet();
+    }
+
+    @Benchmark
+    public BenchmarkBooks.Payload readCached() {
+        return cachedBook.<BenchmarkBooks.Payload>read(nextKey()).blockingGet();
+    }
+
+    @Benchmark
+    public Boolean contains() {
+        return book.contains(nextKey()).blockingGet();
+    }
+
+    @Benchmark
+    public List<String> keys() {
+        return book.keys().blockingGet();
+    }
+}
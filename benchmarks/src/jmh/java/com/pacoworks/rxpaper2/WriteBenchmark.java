@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Throughput of single and batched writes for several value sizes.
+ *
+ * @author pakoito
+ */
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+    private static final int KEY_COUNT = 100;
+
+    @Param({"16", "1024", "65536"})
+    public int valueSize;
+
+    @Param({"paper", "log"})
+    public String engine;
+
+    private File folder;
+
+    private RxPaperBook book;
+
+    private BenchmarkBooks.Payload payload;
+
+    private Map<String, BenchmarkBooks.Payload> batch;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkBooks.init();
+        folder = BenchmarkBooks.createFolder();
+        book = BenchmarkBooks.open(folder, engine);
+        payload = BenchmarkBooks.payload(valueSize);
+        batch = new HashMap<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            batch.put("batch" + i, payload);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkBooks.delete(folder);
+    }
+
+    @Benchmark
+    public void write() {
+        book.write("key" + (next++ % KEY_COUNT), payload).blockingAwait();
+    }
+
+    @Benchmark
+    public void writeAll() {
+        book.writeAll(batch, 1).blockingAwait();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import android.util.Pair;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Archive with the stored values of a whole {@link RxPaperBook}, written and read sequentially.
+ * <p/>
+ * The archive starts with a magic number, a version and flags, followed by the format of the
+ * storage engine and an index with every key. Then comes the stored representation of the value of
+ * each key in the same order, prefixed by its length, or -1 for keys deleted while exporting.
+ * Everything after the flags is deflated if compression was requested. Archives of the first
+ * version recorded the class name of the engine instead of its format.
+ * <p/>
+ * Counts and lengths read are checked against sane maximums, and memory is only allocated as the
+ * data backing it is read, so corrupt archives fail with {@link IOException}.
+ *
+ * @author pakoito
+ */
+final class BookArchive {
+    private static final int MAGIC = 0x52585042;
+
+    private static final int VERSION = 2;
+
+    private static final int VERSION_CLASS_NAME = 1;
+
+    private static final int MAX_KEYS = 1 << 24;
+
+    private static final int MAX_VALUE_LENGTH = 1 << 28;
+
+    private static final int FLAG_DEFLATE = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BookArchive() {
+    }
+
+    /**
+     * Writes every value of the storage, holding a single one in memory at a time.
+     *
+     * @param output stream written to, flushed but not closed
+     */
+    static void write(StorageEngine storage, OutputStream output, boolean compress)
+            throws IOException {
+        final DataOutputStream header = new DataOutputStream(output);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(compress ? FLAG_DEFLATE : 0);
+        header.flush();
+        final Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        final DeflaterOutputStream deflated = compress
+                ? new DeflaterOutputStream(output, deflater, BUFFER_SIZE)
+                : null;
+        try {
+            final DataOutputStream data = new DataOutputStream(
+                    new BufferedOutputStream(compress ? deflated : output, BUFFER_SIZE));
+            final List<String> keys = new ArrayList<>();
+            final Iterator<String> iterator = storage.keyIterator();
+            while (iterator.hasNext()) {
+                keys.add(iterator.next());
+            }
+            data.writeUTF(storage.getFormat());
+            data.writeInt(keys.size());
+            for (String key : keys) {
+                data.writeUTF(key);
+            }
+            for (String key : keys) {
+                final byte[] value = storage.readBytes(key);
+                if (null == value) {
+                    data.writeInt(-1);
+                } else {
+                    data.writeInt(value.length);
+                    data.write(value);
+                }
+            }
+            data.flush();
+            if (compress) {
+                deflated.finish();
+            }
+            output.flush();
+        } finally {
+            if (compress) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Reads the values of an archive one at a time.
+     */
+    static final class Reader {
+        private final DataInputStream data;
+
+        private final List<String> keys;
+
+        private int next;
+
+        /**
+         * Reads the header of an archive, checking it was exported from the same type of engine.
+         *
+         * @param input stream read from, not closed
+         */
+        Reader(InputStream input, StorageEngine storage) throws IOException {
+            final DataInputStream header = new DataInputStream(input);
+            if (header.readInt() != MAGIC) {
+                throw new IOException("Not a book archive");
+            }
+            final int version = header.readUnsignedByte();
+            if (version != VERSION && version != VERSION_CLASS_NAME) {
+                throw new IOException("Unsupported book archive version " + version);
+            }
+            final boolean compressed = (header.readUnsignedByte() & FLAG_DEFLATE) != 0;
+            data = new DataInputStream(new BufferedInputStream(
+                    compressed ? new InflaterInputStream(input) : input, BUFFER_SIZE));
+            final String engine = data.readUTF();
+            final String expected = version == VERSION_CLASS_NAME
+                    ? storage.getClass().getName()
+                    : storage.getFormat();
+            if (!engine.equals(expected)) {
+                throw new IllegalArgumentException("Archive exported from " + engine
+                        + " can't be imported into " + expected);
+            }
+            final int count = data.readInt();
+            if (count < 0 || count > MAX_KEYS) {
+                throw new IOException("Corrupt book archive, invalid key count " + count);
+            }
+            // Grown as keys are read, so a corrupt count fails once the stream ends
+            keys = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                keys.add(data.readUTF());
+            }
+        }
+
+        /**
+         * @return next key and stored value, or null once all have been read
+         */
+        Pair<String, byte[]> next() throws IOException {
+            while (next < keys.size()) {
+                final String key = keys.get(next++);
+                final int length = data.readInt();
+                if (length < -1 || length > MAX_VALUE_LENGTH) {
+                    throw new IOException("Corrupt book archive, invalid length " + length
+                            + " for key " + key);
+                }
+                if (length >= 0) {
+                    return Pair.create(key, readValue(length));
+                }
+            }
+            return null;
+        }
+
+        private byte[] readValue(int length) throws IOException {
+            if (length <= BUFFER_SIZE) {
+                final byte[] value = new byte[length];
+                data.readFully(value);
+                return value;
+            }
+            final ByteArrayOutputStream value = new ByteArrayOutputStream(BUFFER_SIZE);
+            final byte[] chunk = new byte[BUFFER_SIZE];
+            int remaining = length;
+            while (remaining > 0) {
+                final int read = Math.min(remaining, chunk.length);
+                data.readFully(chunk, 0, read);
+                value.write(chunk, 0, read);
+                remaining -= read;
+            }
+            return value.toByteArray();
+        }
+    }
+}
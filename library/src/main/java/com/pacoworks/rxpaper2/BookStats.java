@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.Map;
+
+/**
+ * Snapshot of the metrics of a {@link RxPaperBook}.
+ *
+ * @author pakoito
+ */
+public final class BookStats {
+    /**
+     * Metrics for each type of operation done since metrics were enabled.
+     */
+    public final Map<Operation, OperationStats> operations;
+
+    /**
+     * Number of keys in the book.
+     */
+    public final int keyCount;
+
+    /**
+     * Size on disk of all the files in the book.
+     */
+    public final long diskBytes;
+
+    BookStats(Map<Operation, OperationStats> operations, int keyCount, long diskBytes) {
+        this.operations = operations;
+        this.keyCount = keyCount;
+        this.diskBytes = diskBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BookStats{" + "operations=" + operations + ", keyCount=" + keyCount
+                + ", diskBytes=" + diskBytes + '}';
+    }
+
+    /**
+     * Metrics for one type of operation.
+     */
+    public static final class OperationStats {
+        public final long count;
+
+        public final long errorCount;
+
+        public final long bytes;
+
+        public final long queueP50Nanos;
+
+        public final long queueP99Nanos;
+
+        public final long executionP50Nanos;
+
+        public final long executionP99Nanos;
+
+        OperationStats(long count, long errorCount, long bytes, long queueP50Nanos,
+                long queueP99Nanos, long executionP50Nanos, long executionP99Nanos) {
+            this.count = count;
+            this.errorCount = errorCount;
+            this.bytes = bytes;
+            this.queueP50Nanos = queueP50Nanos;
+            this.queueP99Nanos = queueP99Nanos;
+            this.executionP50Nanos = executionP50Nanos;
+            this.executionP99Nanos = executionP99Nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "OperationStats{" + "count=" + count + ", errorCount=" + errorCount
+                    + ", bytes=" + bytes + ", queueP50Nanos=" + queueP50Nanos
+                    + ", queueP99Nanos=" + queueP99Nanos + ", executionP50Nanos="
+                    + executionP50Nanos + ", executionP99Nanos=" + executionP99Nanos + '}';
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+/**
+ * Moves stored values of single keys from one {@link RxPaperBook} to another, picking the cheapest
+ * way both storage engines allow.
+ * <p/>
+ * Between Paper books the files are copied from channel to channel. Between books on the same type
+ * of engine the stored bytes are copied. Otherwise values are deserialized and serialized again.
+ * Transferred values aren't published, so the latest values kept for their observers are forgotten
+ * instead, while keys moved away are published as deleted.
+ *
+ * @author pakoito
+ */
+final class BookTransfer {
+    private final RxPaperBook source;
+
+    private final RxPaperBook target;
+
+    private final boolean move;
+
+    BookTransfer(RxPaperBook source, RxPaperBook target, boolean move) {
+        if (source.book.getPath().equals(target.book.getPath())) {
+            throw new IllegalArgumentException("Can't transfer book " + source.book.getPath()
+                    + " onto itself");
+        }
+        this.source = source;
+        this.target = target;
+        this.move = move;
+    }
+
+    /**
+     * @return stored bytes transferred, or -1 if the key no longer exists
+     */
+    long transfer(String key) {
+        final StorageEngine from = source.book;
+        final StorageEngine to = target.book;
+        final long bytes;
+        if (from instanceof PaperStorage && to instanceof PaperStorage) {
+            bytes = ((PaperStorage) from).transferTo(key, (PaperStorage) to);
+        } else if (from.getClass() == to.getClass()) {
+            final byte[] read = from.readBytes(key);
+            if (null != read) {
+                to.writeBytes(key, read);
+            }
+            bytes = null == read ? -1 : read.length;
+        } else {
+            final Object read = from.read(key);
+            if (null != read) {
+                to.write(key, read);
+            }
+            bytes = null == read ? -1 : to.sizeOf(key);
+        }
+        target.forget(key);
+        if (bytes < 0) {
+            return bytes;
+        }
+        target.index.add(key);
+        target.updates.invalidate(key);
+        if (move) {
+            source.deleteInternal(key);
+            source.updates.publishDelete(key);
+        }
+        return bytes;
+    }
+}
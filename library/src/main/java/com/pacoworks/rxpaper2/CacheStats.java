@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+/**
+ * Snapshot of the hit and miss counters of the in-memory cache of a {@link RxPaperBook}.
+ *
+ * @author pakoito
+ */
+public final class CacheStats {
+    static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0, 0);
+
+    public final long hitCount;
+
+    public final long missCount;
+
+    public final long evictionCount;
+
+    public final int size;
+
+    public final int maxSize;
+
+    CacheStats(long hitCount, long missCount, long evictionCount, int size, int maxSize) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return ratio of lookups served from memory, or 0 if there were no lookups
+     */
+    public double hitRate() {
+        final long requests = hitCount + missCount;
+        return requests == 0 ? 0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" + "hitCount=" + hitCount + ", missCount=" + missCount
+                + ", evictionCount=" + evictionCount + ", size=" + size + ", maxSize=" + maxSize
+                + '}';
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.List;
+
+/**
+ * Change done to a {@link RxPaperBook}.
+ * <p/>
+ * Every change gets a sequence number, increasing monotonically across all the instances working on
+ * the same book. It can be used to resume observing changes with
+ * {@link RxPaperBook#changes(long, io.reactivex.BackpressureStrategy)}.
+ *
+ * @author pakoito
+ */
+public abstract class ChangeEvent {
+    public final long sequence;
+
+    ChangeEvent(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * A value was saved for a key.
+     */
+    public static final class Written extends ChangeEvent {
+        public final String key;
+
+        /**
+         * Value saved, or null if the change was replayed after it happened by
+         * {@link RxPaperBook#changes(long, io.reactivex.BackpressureStrategy)}, as the values of
+         * past changes aren't kept in memory, or if the value was saved without deserializing it by
+         * {@link RxPaperBook#writeBytes(String, byte[])}.
+         */
+        public final Object value;
+
+        Written(long sequence, String key, Object value) {
+            super(sequence);
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return "Written{" + "sequence=" + sequence + ", key='" + key + '\'' + ", value="
+                    + value + '}';
+        }
+    }
+
+    /**
+     * Values for many keys were saved together by {@link RxPaperBook#writeAll(java.util.Map, int)},
+     * as a single change. Observers of each key are still notified of its value.
+     */
+    public static final class WrittenAll extends ChangeEvent {
+        /**
+         * Keys saved, in the order they were saved.
+         */
+        public final List<String> keys;
+
+        WrittenAll(long sequence, List<String> keys) {
+            super(sequence);
+            this.keys = keys;
+        }
+
+        @Override
+        public String toString() {
+            return "WrittenAll{" + "sequence=" + sequence + ", keys=" + keys + '}';
+        }
+    }
+
+    /**
+     * The value for a key was deleted.
+     */
+    public static final class Deleted extends ChangeEvent {
+        public final String key;
+
+        Deleted(long sequence, String key) {
+            super(sequence);
+            this.key = key;
+        }
+
+        @Override
+        public String toString() {
+            return "Deleted{" + "sequence=" + sequence + ", key='" + key + '\'' + '}';
+        }
+    }
+
+    /**
+     * Values for many keys were saved at once by
+     * {@link RxPaperBook#importFrom(java.io.InputStream)}, or copied or moved from another book by
+     * {@link RxPaperBook#copyTo(RxPaperBook, io.reactivex.functions.Predicate, int)}, without a
+     * change for each of them.
+     */
+    public static final class Imported extends ChangeEvent {
+        public final int keyCount;
+
+        Imported(long sequence, int keyCount) {
+            super(sequence);
+            this.keyCount = keyCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Imported{" + "sequence=" + sequence + ", keyCount=" + keyCount + '}';
+        }
+    }
+
+    /**
+     * All values in the book were deleted.
+     */
+    public static final class Destroyed extends ChangeEvent {
+        Destroyed(long sequence) {
+            super(sequence);
+        }
+
+        @Override
+        public String toString() {
+            return "Destroyed{" + "sequence=" + sequence + '}';
+        }
+    }
+}
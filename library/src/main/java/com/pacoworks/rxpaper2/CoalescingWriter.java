@@ -0,0 +1,167 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.subjects.CompletableSubject;
+
+/**
+ * Writer that collapses rapid writes to the same key of a {@link RxPaperBook} into a single one.
+ * <p/>
+ * A key is saved once no new value has been written for it during the window, or once the maximum
+ * delay since its first unsaved value has passed. Only the last value written is saved. Observers
+ * of the book see every value as soon as it's written.
+ *
+ * @author pakoito
+ */
+public final class CoalescingWriter {
+    private final RxPaperBook book;
+
+    private final long windowNanos;
+
+    private final long maxDelayNanos;
+
+    private final Scheduler timerScheduler;
+
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    CoalescingWriter(RxPaperBook book, long window, long maxDelay, TimeUnit unit,
+            Scheduler timerScheduler) {
+        this.book = book;
+        this.windowNanos = unit.toNanos(window);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.timerScheduler = timerScheduler;
+    }
+
+    /**
+     * Schedules saving a value in the {@link io.paperdb.Book} storage, replacing any value for the
+     * same key not saved yet.
+     *
+     * @param key object key is used as part of object's file name
+     * @param value object to save, must have no-arg constructor, can't be null.
+     * @return completes once this value, or one written later for the same key, has been saved
+     */
+    public <T> Completable write(final String key, final T value) {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                final Pending current;
+                synchronized (CoalescingWriter.this) {
+                    final long now = timerScheduler.now(TimeUnit.NANOSECONDS);
+                    Pending existing = pending.get(key);
+                    if (null == existing) {
+                        existing = new Pending(now);
+                        pending.put(key, existing);
+                    } else {
+                        existing.timer.dispose();
+                    }
+                    current = existing;
+                    current.value = value;
+                    final long delay = Math.min(windowNanos,
+                            current.firstWrite + maxDelayNanos - now);
+                    current.timer = timerScheduler.scheduleDirect(new Runnable() {
+                        @Override
+                        public void run() {
+                            save(key, current);
+                        }
+                    }, Math.max(0, delay), TimeUnit.NANOSECONDS);
+                }
+                book.updates.publish(key, value);
+                return current.saved;
+            }
+        });
+    }
+
+    /**
+     * Saves all values not saved yet without waiting for their window.
+     *
+     * @return completes once all values written before subscribing have been saved
+     */
+    public Completable flush() {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                final List<Map.Entry<String, Pending>> toSave;
+                synchronized (CoalescingWriter.this) {
+                    toSave = new ArrayList<>(pending.entrySet());
+                }
+                final List<Completable> saved = new ArrayList<>(toSave.size());
+                for (Map.Entry<String, Pending> entry : toSave) {
+                    save(entry.getKey(), entry.getValue());
+                    saved.add(entry.getValue().saved);
+                }
+                return Completable.merge(saved);
+            }
+        });
+    }
+
+    /**
+     * @return number of keys with values not saved yet
+     */
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    private void save(final String key, final Pending toSave) {
+        final Object value;
+        synchronized (this) {
+            if (pending.get(key) != toSave) {
+                return;
+            }
+            pending.remove(key);
+            toSave.timer.dispose();
+            value = toSave.value;
+        }
+        Completable.fromAction(new Action() {
+            @Override
+            public void run() {
+                book.journal.recoverOnce(book);
+                book.writeInternal(key, value);
+            }
+        }).subscribeOn(book.schedulerFor(key)).subscribe(toSave.saved);
+    }
+
+    private static final class Pending {
+        final long firstWrite;
+
+        final CompletableSubject saved = CompletableSubject.create();
+
+        Object value;
+
+        Disposable timer;
+
+        Pending(long firstWrite) {
+            this.firstWrite = firstWrite;
+        }
+    }
+}
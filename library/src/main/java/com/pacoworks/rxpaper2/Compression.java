@@ -0,0 +1,153 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import io.paperdb.PaperDbException;
+
+/**
+ * Compresses the values of a {@link RxPaperBook} whose serialized size is over a threshold.
+ * <p/>
+ * Compressed values are stored as {@link CompressedValue}, and everything else as it is, so books
+ * can mix both. Values that don't get smaller are stored as they are. Values are serialized with
+ * the custom serializers added through
+ * {@link RxPaperBook#addSerializer(Class, com.esotericsoftware.kryo.Serializer)}.
+ *
+ * @author pakoito
+ */
+final class Compression {
+    private static final DeflateCodec DEFLATE = new DeflateCodec();
+
+    private static final KryoSerializer SERIALIZER = new KryoSerializer();
+
+    private final int threshold;
+
+    private final CompressionCodec codec;
+
+    private long compressedCount;
+
+    private long skippedCount;
+
+    private long bytesBefore;
+
+    private long bytesAfter;
+
+    private long compressNanos;
+
+    private long decompressedCount;
+
+    private long decompressNanos;
+
+    Compression(int threshold, CompressionCodec codec) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold can't be negative, was " + threshold);
+        }
+        this.threshold = threshold;
+        this.codec = codec;
+    }
+
+    /**
+     * Saves a value, compressed if its serialized size is over the threshold.
+     * <p/>
+     * Storage engines keeping values serialized as {@link KryoSerializer} does, as told by
+     * {@link StorageEngine#storesSerialized()}, are given the bytes serialized to measure the value
+     * when it's saved as it is. Other engines serialize values themselves, so small values are only
+     * serialized up to the threshold to measure them.
+     */
+    void write(StorageEngine storage, String key, Object value) {
+        final long started = System.nanoTime();
+        final boolean storesSerialized = storage.storesSerialized();
+        final byte[] serialized;
+        if (storesSerialized) {
+            serialized = SERIALIZER.serialize(value);
+            if (serialized.length < threshold) {
+                recordSkipped();
+                storage.writeBytes(key, serialized);
+                return;
+            }
+        } else if (!SERIALIZER.isAtLeast(value, threshold)) {
+            recordSkipped();
+            storage.write(key, value);
+            return;
+        } else {
+            serialized = SERIALIZER.serialize(value);
+        }
+        final byte[] compressed = codec.compress(serialized);
+        final long elapsed = System.nanoTime() - started;
+        if (compressed.length >= serialized.length) {
+            recordSkipped();
+            if (storesSerialized) {
+                storage.writeBytes(key, serialized);
+            } else {
+                storage.write(key, value);
+            }
+            return;
+        }
+        synchronized (this) {
+            compressedCount++;
+            bytesBefore += serialized.length;
+            bytesAfter += compressed.length;
+            compressNanos += elapsed;
+        }
+        storage.write(key, new CompressedValue(codec.name(), serialized.length, compressed));
+    }
+
+    /**
+     * Restores a value read from storage, which may have been compressed by any instance.
+     *
+     * @param compression compression of the book reading the value, or null if it has none
+     */
+    static Object decode(Object stored, Compression compression) {
+        if (!(stored instanceof CompressedValue)) {
+            return stored;
+        }
+        final long started = System.nanoTime();
+        final CompressedValue value = (CompressedValue) stored;
+        final CompressionCodec codec;
+        if (null != compression && compression.codec.name().equals(value.codec)) {
+            codec = compression.codec;
+        } else if (DeflateCodec.NAME.equals(value.codec)) {
+            codec = DEFLATE;
+        } else {
+            throw new PaperDbException("No codec " + value.codec + " to read compressed value");
+        }
+        final Object decoded = SERIALIZER.deserialize(codec.decompress(value.data, value.length),
+                0, value.length);
+        if (null != compression) {
+            compression.recordDecompressed(System.nanoTime() - started);
+        }
+        return decoded;
+    }
+
+    synchronized CompressionStats stats() {
+        return new CompressionStats(compressedCount, skippedCount, bytesBefore, bytesAfter,
+                compressNanos, decompressedCount, decompressNanos);
+    }
+
+    private synchronized void recordSkipped() {
+        skippedCount++;
+    }
+
+    private synchronized void recordDecompressed(long elapsed) {
+        decompressedCount++;
+        decompressNanos += elapsed;
+    }
+}
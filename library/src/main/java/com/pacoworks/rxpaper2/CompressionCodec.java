@@ -0,0 +1,51 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+/**
+ * Compresses serialized values for {@link RxPaperBook#withCompression(int, CompressionCodec)}.
+ * <p/>
+ * The name of the codec is stored with each compressed value, so values must be read with a
+ * codec of the same name. Implementations must be safe to call from several threads at once.
+ *
+ * @author pakoito
+ * @see DeflateCodec
+ */
+public interface CompressionCodec {
+    /**
+     * @return name identifying the format of the compressed data, stored with each value
+     */
+    String name();
+
+    /**
+     * @param data serialized value
+     * @return compressed data
+     */
+    byte[] compress(byte[] data);
+
+    /**
+     * @param data compressed data
+     * @param length size of the serialized value before compression
+     * @return serialized value
+     */
+    byte[] decompress(byte[] data, int length);
+}
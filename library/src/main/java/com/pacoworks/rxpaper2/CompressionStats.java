@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+/**
+ * Snapshot of the counters of the compression of a {@link RxPaperBook}, to tune its threshold.
+ *
+ * @author pakoito
+ */
+public final class CompressionStats {
+    static final CompressionStats EMPTY = new CompressionStats(0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * Values written compressed.
+     */
+    public final long compressedCount;
+
+    /**
+     * Values written as they are, for being under the threshold or not getting smaller.
+     */
+    public final long skippedCount;
+
+    /**
+     * Serialized size of the values written compressed.
+     */
+    public final long bytesBeforeCompression;
+
+    /**
+     * Compressed size of the values written compressed.
+     */
+    public final long bytesAfterCompression;
+
+    /**
+     * Time spent serializing and compressing the values written compressed.
+     */
+    public final long compressNanos;
+
+    /**
+     * Compressed values read.
+     */
+    public final long decompressedCount;
+
+    /**
+     * Time spent decompressing and deserializing the compressed values read.
+     */
+    public final long decompressNanos;
+
+    CompressionStats(long compressedCount, long skippedCount, long bytesBeforeCompression,
+            long bytesAfterCompression, long compressNanos, long decompressedCount,
+            long decompressNanos) {
+        this.compressedCount = compressedCount;
+        this.skippedCount = skippedCount;
+        this.bytesBeforeCompression = bytesBeforeCompression;
+        this.bytesAfterCompression = bytesAfterCompression;
+        this.compressNanos = compressNanos;
+        this.decompressedCount = decompressedCount;
+        this.decompressNanos = decompressNanos;
+    }
+
+    /**
+     * @return bytes not written thanks to compression
+     */
+    public long savedBytes() {
+        return bytesBeforeCompression - bytesAfterCompression;
+    }
+
+    /**
+     * @return compressed size over serialized size of the values written compressed, or 1 if none
+     */
+    public double ratio() {
+        return bytesBeforeCompression == 0
+                ? 1
+                : (double) bytesAfterCompression / bytesBeforeCompression;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats{" + "compressedCount=" + compressedCount + ", skippedCount="
+                + skippedCount + ", bytesBeforeCompression=" + bytesBeforeCompression
+                + ", bytesAfterCompression=" + bytesAfterCompression + ", compressNanos="
+                + compressNanos + ", decompressedCount=" + decompressedCount
+                + ", decompressNanos=" + decompressNanos + '}';
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+/**
+ * Progress of a {@link RxPaperBook#copyTo(RxPaperBook, io.reactivex.functions.Predicate)} or
+ * {@link RxPaperBook#moveTo(RxPaperBook, io.reactivex.functions.Predicate)}, emitted after each
+ * key.
+ *
+ * @author pakoito
+ */
+public final class CopyProgress {
+    /**
+     * Last key transferred.
+     */
+    public final String key;
+
+    /**
+     * Keys transferred so far, including keys deleted from the source before their turn.
+     */
+    public final int completedKeys;
+
+    /**
+     * Keys passing the filter when the transfer started. Keys written while it runs may be
+     * transferred too, making {@link #completedKeys} go over it.
+     */
+    public final int totalKeys;
+
+    /**
+     * Stored bytes transferred so far.
+     */
+    public final long bytes;
+
+    CopyProgress(String key, int completedKeys, int totalKeys, long bytes) {
+        this.key = key;
+        this.completedKeys = completedKeys;
+        this.totalKeys = totalKeys;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return ratio of keys transferred, at most 1, and 1 if there was nothing to transfer
+     */
+    public double fraction() {
+        return totalKeys == 0 ? 1 : Math.min(1, (double) completedKeys / totalKeys);
+    }
+
+    @Override
+    public String toString() {
+        return "CopyProgress{" + "key='" + key + '\'' + ", completedKeys=" + completedKeys
+                + ", totalKeys=" + totalKeys + ", bytes=" + bytes + '}';
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import io.paperdb.PaperDbException;
+
+/**
+ * {@link CompressionCodec} using the Deflate algorithm of {@link java.util.zip}.
+ * <p/>
+ * Values compressed with Deflate can always be read, even by books without compression enabled.
+ *
+ * @author pakoito
+ */
+public final class DeflateCodec implements CompressionCodec {
+    static final String NAME = "deflate";
+
+    private final int level;
+
+    /**
+     * Creates a codec favouring speed over size, as values are compressed on every write.
+     */
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param level compression level, from {@link Deflater#BEST_SPEED} to
+     *        {@link Deflater#BEST_COMPRESSION}
+     */
+    public DeflateCodec(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, data.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    final byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    buffer = grown;
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            final byte[] compressed = new byte[length];
+            System.arraycopy(buffer, 0, compressed, 0, length);
+            return compressed;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int length) {
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            final byte[] value = new byte[length];
+            int read = 0;
+            while (read < length) {
+                final int inflated = inflater.inflate(value, read, length - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new PaperDbException("Compressed value ended after " + read + " of "
+                            + length + " bytes");
+                }
+                read += inflated;
+            }
+            return value;
+        } catch (DataFormatException e) {
+            throw new PaperDbException("Corrupted compressed value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.paperdb.PaperDbException;
+import io.reactivex.Completable;
+import io.reactivex.CompletableObserver;
+import io.reactivex.CompletableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.subjects.CompletableSubject;
+
+/**
+ * Groups the writes done on a {@link RxPaperBook} during a window so they're saved together.
+ * <p/>
+ * The window opens with the first write after the previous group was closed. Each group is saved
+ * as a single batch once the previous one has finished, and all its writes complete when the whole
+ * group is saved. Closed groups wait in a queue and are dropped as soon as they're saved.
+ * <p/>
+ * A single instance is shared by the grouped view and every view created from it, so writes of the
+ * same key through any of them are saved in order. Each write is saved through the view it was
+ * done on.
+ *
+ * @author pakoito
+ */
+final class GroupCommit {
+    private final long window;
+
+    private final TimeUnit unit;
+
+    private final Scheduler timerScheduler;
+
+    private final int parallelism;
+
+    private final ArrayDeque<Group> closed = new ArrayDeque<>();
+
+    private Group open;
+
+    // Most recent group, saved after all the others
+    private Group latest;
+
+    private boolean committing;
+
+    GroupCommit(long window, TimeUnit unit, Scheduler timerScheduler, int parallelism) {
+        this.window = window;
+        this.unit = unit;
+        this.timerScheduler = timerScheduler;
+        this.parallelism = parallelism;
+    }
+
+    Completable write(final RxPaperBook view, final String key, final Object value) {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                if (null == value) {
+                    return Completable.error(new PaperDbException(
+                            "Paper doesn't support writing null root values"));
+                }
+                final Group group;
+                final boolean opened;
+                synchronized (GroupCommit.this) {
+                    opened = null == open;
+                    if (opened) {
+                        open = new Group();
+                        latest = open;
+                    }
+                    open.values.put(key, new Write(view, value));
+                    group = open;
+                }
+                if (opened) {
+                    timerScheduler.scheduleDirect(close(group), window, unit);
+                }
+                return group.saved;
+            }
+        });
+    }
+
+    /**
+     * Closes the open group without waiting for its window, so changes saved without grouping
+     * afterwards land after every grouped write.
+     *
+     * @return completes once every group open or closed before subscribing has been saved, even if
+     *         saving failed, as failures are reported to the grouped writes
+     */
+    Completable flush() {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                final Group group;
+                synchronized (GroupCommit.this) {
+                    group = latest;
+                }
+                if (null == group) {
+                    return Completable.complete();
+                }
+                close(group).run();
+                return group.saved.onErrorComplete();
+            }
+        });
+    }
+
+    private Runnable close(final Group group) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (GroupCommit.this) {
+                    // Groups are closed once, by their timer or by a flush
+                    if (open != group) {
+                        return;
+                    }
+                    open = null;
+                    closed.add(group);
+                    if (committing) {
+                        return;
+                    }
+                    committing = true;
+                }
+                commitNext();
+            }
+        };
+    }
+
+    /**
+     * Saves the oldest closed group, and the next one once it's done, until none is left.
+     */
+    private void commitNext() {
+        final Group group;
+        synchronized (this) {
+            group = closed.poll();
+            if (null == group) {
+                committing = false;
+                return;
+            }
+        }
+        save(group).subscribe(new CompletableObserver() {
+            @Override
+            public void onSubscribe(Disposable d) {
+            }
+
+            @Override
+            public void onComplete() {
+                group.saved.onComplete();
+                commitNext();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                group.saved.onError(e);
+                commitNext();
+            }
+        });
+    }
+
+    /**
+     * Saves the writes of a group as a batch for each view they were done on.
+     */
+    private Completable save(Group group) {
+        final Map<RxPaperBook, Map<String, Object>> byView = new LinkedHashMap<>();
+        for (Map.Entry<String, Write> entry : group.values.entrySet()) {
+            final Write write = entry.getValue();
+            Map<String, Object> values = byView.get(write.view);
+            if (null == values) {
+                values = new LinkedHashMap<>();
+                byView.put(write.view, values);
+            }
+            values.put(entry.getKey(), write.value);
+        }
+        final List<Completable> batches = new ArrayList<>(byView.size());
+        for (Map.Entry<RxPaperBook, Map<String, Object>> batch : byView.entrySet()) {
+            batches.add(batch.getKey().saveAll(batch.getValue(), parallelism));
+        }
+        return Completable.mergeDelayError(batches);
+    }
+
+    private static final class Write {
+        final RxPaperBook view;
+
+        final Object value;
+
+        Write(RxPaperBook view, Object value) {
+            this.view = view;
+            this.value = value;
+        }
+    }
+
+    private static final class Group {
+        final LinkedHashMap<String, Write> values = new LinkedHashMap<>();
+
+        final CompletableSubject saved = CompletableSubject.create();
+    }
+}
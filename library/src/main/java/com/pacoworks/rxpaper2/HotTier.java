@@ -0,0 +1,278 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Bounded in-memory tier of deserialized values in front of the storage of a {@link RxPaperBook}.
+ * <p/>
+ * The tier holds at most a number of entries and a number of bytes, where each entry weighs the
+ * size of its stored representation. Values are always written to storage as well, so demoting an
+ * entry only drops it from memory. Keys changed through other instances on the book are removed
+ * through {@link UpdateBus.Listener}.
+ *
+ * @author pakoito
+ */
+public final class HotTier {
+    /**
+     * When values read or written through the book enter the hot tier.
+     */
+    public enum Promotion {
+        /**
+         * Values enter the tier when written and when read from storage.
+         */
+        ON_ACCESS,
+        /**
+         * Values enter the tier when read from storage. Writes only refresh values already in it.
+         */
+        ON_READ,
+        /**
+         * Values enter the tier the second time they are read from storage while still
+         * remembered, so a single pass over many keys doesn't flush the tier.
+         */
+        ON_SECOND_READ
+    }
+
+    /**
+     * Which entries leave the hot tier once it's over its limits.
+     */
+    public enum Demotion {
+        /**
+         * Entries not read or written for the longest time leave first.
+         */
+        LEAST_RECENTLY_USED,
+        /**
+         * The largest entries leave first, keeping as many small values in memory as possible.
+         */
+        LARGEST_FIRST
+    }
+
+    private static final Comparator<Entry> BY_WEIGHT = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry left, Entry right) {
+            if (left.weight != right.weight) {
+                return left.weight > right.weight ? -1 : 1;
+            }
+            return left.key.compareTo(right.key);
+        }
+    };
+
+    private final StorageEngine storage;
+
+    private final int maxEntries;
+
+    private final long maxBytes;
+
+    private final Promotion promotion;
+
+    private final Demotion demotion;
+
+    // In access order, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final TreeSet<Entry> byWeight = new TreeSet<>(BY_WEIGHT);
+
+    // Keys read once from storage, for ON_SECOND_READ
+    private final LinkedHashMap<String, Boolean> candidates = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final UpdateBus.Listener listener = new UpdateBus.Listener() {
+        @Override
+        public void remove(String key) {
+            HotTier.this.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            HotTier.this.clear();
+        }
+    };
+
+    private long bytes;
+
+    private long generation;
+
+    private long hotHits;
+
+    private long coldHits;
+
+    private long misses;
+
+    private long promotions;
+
+    private long demotions;
+
+    HotTier(StorageEngine storage, int maxEntries, long maxBytes, Promotion promotion,
+            Demotion demotion) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Hot tier limits must be positive, were "
+                    + maxEntries + " entries and " + maxBytes + " bytes");
+        }
+        this.storage = storage;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.promotion = promotion;
+        this.demotion = demotion;
+    }
+
+    /**
+     * @return listener removing the keys changed through any instance on the book, held by the
+     *         tier so it's registered for as long as the tier is used
+     */
+    UpdateBus.Listener listener() {
+        return listener;
+    }
+
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * @return the value in memory, or null if the key has to be read from storage
+     */
+    synchronized Object get(String key) {
+        final Entry entry = entries.get(key);
+        if (null == entry) {
+            return null;
+        }
+        hotHits++;
+        return entry.value;
+    }
+
+    synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Records a value read from storage, promoting it unless the tier has been mutated since the
+     * read started.
+     */
+    void fill(String key, Object value, long readGeneration) {
+        fill(key, value, null == value ? 0 : storage.sizeOf(key), readGeneration);
+    }
+
+    private synchronized void fill(String key, Object value, long weight, long readGeneration) {
+        if (null == value) {
+            misses++;
+            return;
+        }
+        coldHits++;
+        if (generation != readGeneration) {
+            return;
+        }
+        if (Promotion.ON_SECOND_READ == promotion && null == candidates.remove(key)) {
+            candidates.put(key, Boolean.TRUE);
+            if (candidates.size() > maxEntries) {
+                final Iterator<String> eldest = candidates.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+            return;
+        }
+        promote(key, value, weight);
+    }
+
+    /**
+     * Records a value just written to storage.
+     */
+    void put(String key, Object value) {
+        put(key, value, storage.sizeOf(key));
+    }
+
+    private synchronized void put(String key, Object value, long weight) {
+        generation++;
+        if (Promotion.ON_ACCESS == promotion || entries.containsKey(key)) {
+            promote(key, value, weight);
+        }
+    }
+
+    synchronized void remove(String key) {
+        generation++;
+        candidates.remove(key);
+        final Entry removed = entries.remove(key);
+        if (null != removed) {
+            byWeight.remove(removed);
+            bytes -= removed.weight;
+        }
+    }
+
+    synchronized void clear() {
+        generation++;
+        candidates.clear();
+        entries.clear();
+        byWeight.clear();
+        bytes = 0;
+    }
+
+    synchronized TierStats stats() {
+        return new TierStats(hotHits, coldHits, misses, promotions, demotions, entries.size(),
+                bytes, maxEntries, maxBytes);
+    }
+
+    private void promote(String key, Object value, long weight) {
+        final Entry previous = entries.remove(key);
+        if (null != previous) {
+            byWeight.remove(previous);
+            bytes -= previous.weight;
+        }
+        if (weight > maxBytes) {
+            return;
+        }
+        if (null == previous) {
+            promotions++;
+        }
+        final Entry entry = new Entry(key, value, weight);
+        entries.put(key, entry);
+        byWeight.add(entry);
+        bytes += weight;
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            demote(Demotion.LARGEST_FIRST == demotion
+                    ? byWeight.first()
+                    : entries.values().iterator().next());
+        }
+    }
+
+    private void demote(Entry entry) {
+        entries.remove(entry.key);
+        byWeight.remove(entry);
+        bytes -= entry.weight;
+        demotions++;
+    }
+
+    private static final class Entry {
+        final String key;
+
+        final Object value;
+
+        final long weight;
+
+        Entry(String key, Object value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
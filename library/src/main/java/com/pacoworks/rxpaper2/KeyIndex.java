@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Sorted set of the keys in a book, shared by all the {@link RxPaperBook} instances working on it.
+ * <p/>
+ * The keys are listed on first use. Until then changes are ignored, as the listing will include
+ * them. Changes that race with the listing wait for it to finish and are applied afterwards.
+ *
+ * @author pakoito
+ */
+final class KeyIndex {
+    private final Object lock = new Object();
+
+    private volatile ConcurrentSkipListSet<String> keys;
+
+    /**
+     * @return live view of the keys, listing the keys in storage if they weren't yet
+     */
+    NavigableSet<String> keys(StorageEngine storage) {
+        final ConcurrentSkipListSet<String> loaded = keys;
+        if (null != loaded) {
+            return loaded;
+        }
+        synchronized (lock) {
+            if (null == keys) {
+                final ConcurrentSkipListSet<String> listed = new ConcurrentSkipListSet<>();
+                final Iterator<String> listing = storage.keyIterator();
+                while (listing.hasNext()) {
+                    listed.add(listing.next());
+                }
+                keys = listed;
+            }
+            return keys;
+        }
+    }
+
+    void add(String key) {
+        final ConcurrentSkipListSet<String> loaded = loadedKeys();
+        if (null != loaded) {
+            loaded.add(key);
+        }
+    }
+
+    void remove(String key) {
+        final ConcurrentSkipListSet<String> loaded = loadedKeys();
+        if (null != loaded) {
+            loaded.remove(key);
+        }
+    }
+
+    void clear() {
+        final ConcurrentSkipListSet<String> loaded = loadedKeys();
+        if (null != loaded) {
+            loaded.clear();
+        }
+    }
+
+    private ConcurrentSkipListSet<String> loadedKeys() {
+        final ConcurrentSkipListSet<String> loaded = keys;
+        if (null != loaded) {
+            return loaded;
+        }
+        synchronized (lock) {
+            return keys;
+        }
+    }
+}
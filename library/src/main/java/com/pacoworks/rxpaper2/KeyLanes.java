@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Ordered execution lanes for the operations of a {@link RxPaperBook}.
+ * <p/>
+ * Each key is hashed onto one lane. Every lane runs on a single worker of the underlying scheduler,
+ * so operations on the same key run in the order they are subscribed to, while keys on other lanes
+ * run in parallel. A lane only holds its worker while it has operations queued or running, so idle
+ * lanes keep no threads of the scheduler.
+ *
+ * @author pakoito
+ */
+final class KeyLanes {
+    private final Lane[] lanes;
+
+    KeyLanes(Scheduler scheduler, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Lane count must be positive, was " + count);
+        }
+        lanes = new Lane[count];
+        for (int i = 0; i < count; i++) {
+            lanes[i] = new Lane(scheduler);
+        }
+    }
+
+    int laneOf(String key) {
+        final int hash = key.hashCode();
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    Scheduler schedulerFor(String key) {
+        return lanes[laneOf(key)].scheduler;
+    }
+
+    Scheduler scheduler(int lane) {
+        return lanes[lane].scheduler;
+    }
+
+    int[] depths() {
+        final int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].depth.get();
+        }
+        return depths;
+    }
+
+    private static final class Lane implements Executor {
+        final AtomicInteger depth = new AtomicInteger();
+
+        final Scheduler source;
+
+        final Scheduler scheduler;
+
+        // Created when the lane gets busy and disposed once it's idle again, with the lock held
+        private Scheduler.Worker worker;
+
+        Lane(Scheduler source) {
+            this.source = source;
+            this.scheduler = Schedulers.from(this);
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            final Scheduler.Worker current;
+            synchronized (this) {
+                if (depth.getAndIncrement() == 0) {
+                    worker = source.createWorker();
+                }
+                current = worker;
+            }
+            current.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        done();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Releases the worker once the last operation queued has run, so the next one starts on a
+         * new worker after every previous operation has finished.
+         */
+        private synchronized void done() {
+            if (depth.decrementAndGet() == 0) {
+                worker.dispose();
+                worker = null;
+            }
+        }
+    }
+}
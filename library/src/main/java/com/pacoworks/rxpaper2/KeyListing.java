@@ -0,0 +1,57 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.io.File;
+
+/**
+ * Cursor over the keys stored in a book folder, turning file names into keys one at a time as
+ * they're requested.
+ *
+ * @author pakoito
+ */
+final class KeyListing {
+    private static final String SUFFIX = ".pt";
+
+    private final String[] names;
+
+    private int position;
+
+    KeyListing(String path) {
+        final String[] listed = new File(path).list();
+        this.names = null == listed ? new String[0] : listed;
+    }
+
+    /**
+     * @return next key, or null if there are no more
+     */
+    String next() {
+        while (position < names.length) {
+            final String name = names[position];
+            names[position++] = null;
+            if (name.endsWith(SUFFIX)) {
+                return name.substring(0, name.length() - SUFFIX.length());
+            }
+        }
+        return null;
+    }
+}
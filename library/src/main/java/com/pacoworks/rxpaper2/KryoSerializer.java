@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import android.util.Pair;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import de.javakaffee.kryoserializers.ArraysAsListSerializer;
+import de.javakaffee.kryoserializers.SynchronizedCollectionsSerializer;
+import de.javakaffee.kryoserializers.UUIDSerializer;
+import de.javakaffee.kryoserializers.UnmodifiableCollectionsSerializer;
+import io.paperdb.serializer.NoArgCollectionSerializer;
+
+/**
+ * Serializes values with Kryo using the same configuration as Paper, so any object model that can
+ * be saved by Paper can be saved by other {@link StorageEngine}s.
+ * <p/>
+ * Custom serializers are registered on each thread's Kryo before its next use, in the order they
+ * were added, so they apply to values serialized after adding them.
+ *
+ * @author pakoito
+ */
+final class KryoSerializer {
+    // Only appended to, so registration ids are stable between runs adding the same serializers
+    private static final List<Pair<Class<?>, Serializer<?>>> CUSTOM_SERIALIZERS =
+            new CopyOnWriteArrayList<>();
+
+    private final ThreadLocal<ThreadKryo> kryo = new ThreadLocal<ThreadKryo>() {
+        @Override
+        protected ThreadKryo initialValue() {
+            return new ThreadKryo(create());
+        }
+    };
+
+    byte[] serialize(Object value) {
+        final Output output = new Output(256, -1);
+        kryo().writeClassAndObject(output, value);
+        return output.toBytes();
+    }
+
+    /**
+     * Serializes a value only as far as needed to tell whether it takes at least the given number
+     * of bytes, without keeping the serialized bytes.
+     */
+    boolean isAtLeast(Object value, int size) {
+        final SizeLimit limit = new SizeLimit(size);
+        final Output output = new Output(limit, 256);
+        try {
+            kryo().writeClassAndObject(output, value);
+            output.flush();
+            return false;
+        } catch (KryoException e) {
+            if (limit.reached) {
+                return true;
+            }
+            throw e;
+        }
+    }
+
+    Object deserialize(byte[] bytes, int offset, int length) {
+        return kryo().readClassAndObject(new Input(bytes, offset, length));
+    }
+
+    static <T> void addSerializer(Class<T> clazz, Serializer<T> serializer) {
+        CUSTOM_SERIALIZERS.add(Pair.<Class<?>, Serializer<?>>create(clazz, serializer));
+    }
+
+    private Kryo kryo() {
+        final ThreadKryo current = kryo.get();
+        final int added = CUSTOM_SERIALIZERS.size();
+        for (int i = current.registered; i < added; i++) {
+            final Pair<Class<?>, Serializer<?>> custom = CUSTOM_SERIALIZERS.get(i);
+            current.kryo.register(custom.first, custom.second);
+        }
+        current.registered = added;
+        return current.kryo;
+    }
+
+    private static Kryo create() {
+        final Kryo kryo = new Kryo();
+        kryo.getFieldSerializerConfig().setOptimizedGenerics(false);
+        kryo.setDefaultSerializer(CompatibleFieldSerializer.class);
+        kryo.setReferences(false);
+        kryo.register(Arrays.asList("").getClass(), new ArraysAsListSerializer());
+        UnmodifiableCollectionsSerializer.registerSerializers(kryo);
+        SynchronizedCollectionsSerializer.registerSerializers(kryo);
+        kryo.addDefaultSerializer(new ArrayList<>().subList(0, 0).getClass(),
+                new NoArgCollectionSerializer());
+        kryo.addDefaultSerializer(new LinkedList<>().subList(0, 0).getClass(),
+                new NoArgCollectionSerializer());
+        kryo.register(UUID.class, new UUIDSerializer());
+        kryo.setInstantiatorStrategy(
+                new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        return kryo;
+    }
+
+    /**
+     * Discards the bytes written to it, failing once they reach a limit.
+     */
+    private static final class SizeLimit extends OutputStream {
+        private final int limit;
+
+        private long count;
+
+        boolean reached;
+
+        SizeLimit(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(null, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            count += length;
+            if (count >= limit) {
+                reached = true;
+                throw new IOException("Serialized size reached " + limit);
+            }
+        }
+    }
+
+    private static final class ThreadKryo {
+        final Kryo kryo;
+
+        int registered;
+
+        ThreadKryo(Kryo kryo) {
+            this.kryo = kryo;
+        }
+    }
+}
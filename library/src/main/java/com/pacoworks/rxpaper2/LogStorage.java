@@ -0,0 +1,251 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.paperdb.PaperDbException;
+
+/**
+ * {@link StorageEngine} appending values to segment files, for books with many small values.
+ * <p/>
+ * Each write or delete appends a checksummed record to the active segment, which is replaced by a
+ * new one once it grows over the maximum segment size. The location of the latest record for each
+ * key is kept in memory, so reads take a single positioned read. Once more than half of the stored
+ * bytes belong to overwritten or deleted values, the live records are copied to a new segment and
+ * the old ones are deleted, while writes continue on the segment after it.
+ * <p/>
+ * The segments are scanned to rebuild the index on first use. A record torn by a crash is
+ * discarded together with anything after it in the same segment. Errors are reported as
+ * {@link PaperDbException}, as with {@link PaperStorage}.
+ * <p/>
+ * Every instance opened on the same folder shares a single log, kept open for the lifetime of the
+ * process, while each one appends with its own durability and segment size. The folder must not
+ * be written by other processes at the same time. Values are serialized with Kryo configured as
+ * Paper does, including the serializers added through
+ * {@link RxPaperBook#addSerializer(Class, com.esotericsoftware.kryo.Serializer)}. Serializers
+ * added directly to {@link io.paperdb.Paper} only apply to Paper books.
+ *
+ * @author pakoito
+ */
+public final class LogStorage implements StorageEngine {
+    /**
+     * When writes are considered complete.
+     */
+    public enum Durability {
+        /**
+         * Writes return once their record is synced to disk. Concurrent writes share syncs.
+         */
+        SYNC,
+        /**
+         * Writes return once their record is handed to the OS, and may be lost on power failure.
+         */
+        RELAXED
+    }
+
+    /**
+     * Default maximum size of a segment, 4 MB.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final ConcurrentMap<String, SegmentLog> LOGS = new ConcurrentHashMap<>();
+
+    private final String path;
+
+    private final SegmentLog log;
+
+    private final Durability durability;
+
+    private final long maxSegmentSize;
+
+    private final KryoSerializer serializer = new KryoSerializer();
+
+    /**
+     * Opens a log in a folder, syncing every write and using the default segment size.
+     *
+     * @param path folder where segments are stored, created if needed
+     */
+    public LogStorage(String path) {
+        this(path, Durability.SYNC, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a log in a folder, sharing it with any other instance opened on the same folder.
+     *
+     * @param path folder where segments are stored, created if needed
+     * @param durability when writes done through this instance are considered complete
+     * @param maxSegmentSize size in bytes after which writes through this instance start a new
+     *            segment
+     */
+    public LogStorage(String path, Durability durability, long maxSegmentSize) {
+        if (maxSegmentSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Segment size must be positive, was " + maxSegmentSize);
+        }
+        try {
+            this.path = new File(path).getCanonicalPath();
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't resolve " + path, e);
+        }
+        this.log = logFor(this.path);
+        this.durability = durability;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    private static SegmentLog logFor(String path) {
+        final SegmentLog log = LOGS.get(path);
+        if (null != log) {
+            return log;
+        }
+        final SegmentLog created = new SegmentLog(new File(path));
+        final SegmentLog existing = LOGS.putIfAbsent(path, created);
+        return null == existing ? created : existing;
+    }
+
+    @Override
+    public <T> void write(String key, T value) {
+        if (null == value) {
+            throw new PaperDbException("Paper doesn't support writing null root values");
+        }
+        log.append(key, SegmentLog.PUT, serializer.serialize(value), durability, maxSegmentSize);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T read(String key) {
+        final byte[] record = log.readRecord(key);
+        if (null == record) {
+            return null;
+        }
+        final int offset = SegmentLog.valueOffset(record);
+        return (T) serializer.deserialize(record, offset, record.length - offset);
+    }
+
+    /**
+     * The stored representation is the value serialized by Kryo, without framing.
+     */
+    @Override
+    public byte[] readBytes(String key) {
+        final byte[] record = log.readRecord(key);
+        if (null == record) {
+            return null;
+        }
+        final int offset = SegmentLog.valueOffset(record);
+        final byte[] value = new byte[record.length - offset];
+        System.arraycopy(record, offset, value, 0, value.length);
+        return value;
+    }
+
+    @Override
+    public void writeBytes(String key, byte[] bytes) {
+        log.append(key, SegmentLog.PUT, bytes, durability, maxSegmentSize);
+    }
+
+    /**
+     * Values are stored as serialized by Kryo, without any framing.
+     */
+    @Override
+    public boolean storesSerialized() {
+        return true;
+    }
+
+    @Override
+    public String getFormat() {
+        return "log";
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return log.contains(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        if (log.contains(key)) {
+            log.append(key, SegmentLog.DELETE, new byte[0], durability, maxSegmentSize);
+        }
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        return log.getAllKeys();
+    }
+
+    @Override
+    public Iterator<String> keyIterator() {
+        return log.keyIterator();
+    }
+
+    @Override
+    public void destroy() {
+        log.destroy();
+    }
+
+    /**
+     * @return canonical path of the folder
+     */
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String getPath(String key) {
+        return log.getPath(key);
+    }
+
+    @Override
+    public long sizeOf(String key) {
+        return log.sizeOf(key);
+    }
+
+    @Override
+    public long getSize() {
+        return log.getSize();
+    }
+
+    /**
+     * Copies the live records to a new segment and deletes the old ones.
+     * <p/>
+     * Compaction happens automatically once most of the stored bytes are dead, run by the write
+     * that crossed that point. Writes continue while the records are copied.
+     */
+    public void compact() {
+        log.compact();
+    }
+
+    /**
+     * Closes the log of a folder, so the next instance opened on it recovers it from disk as
+     * happens after the process restarts. Instances already opened on it can't be used anymore.
+     */
+    static void closeLog(String path) throws IOException {
+        final SegmentLog log = LOGS.remove(new File(path).getCanonicalPath());
+        if (null != log) {
+            log.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the operations of a {@link RxPaperBook} and forwards them to an optional listener.
+ * <p/>
+ * Bytes are only recorded for operations that read or wrote a value in storage, as reported with
+ * {@link #stored(long)} by the thread running them, so values served from memory cost nothing.
+ *
+ * @author pakoito
+ */
+final class Metrics {
+    private static final long NOT_RECORDING = -1;
+
+    private final StorageEngine book;
+
+    private final MetricsListener listener;
+
+    private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+
+    // Stored size of the value read or written by the operation running on each thread, or
+    // NOT_RECORDING outside of operations
+    private final ThreadLocal<long[]> storedBytes = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[] {NOT_RECORDING};
+        }
+    };
+
+    Metrics(StorageEngine book, MetricsListener listener) {
+        this.book = book;
+        this.listener = listener;
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder());
+        }
+    }
+
+    /**
+     * Starts recording an operation on the current thread.
+     */
+    void start() {
+        storedBytes.get()[0] = 0;
+    }
+
+    /**
+     * Records the size of the value the operation running on the current thread read or wrote.
+     */
+    void stored(long bytes) {
+        final long[] stored = storedBytes.get();
+        if (NOT_RECORDING != stored[0]) {
+            stored[0] = bytes;
+        }
+    }
+
+    /**
+     * Records the size of the value of a key the operation running on the current thread read or
+     * wrote, as reported by storage.
+     */
+    void stored(String key) {
+        final long[] stored = storedBytes.get();
+        if (NOT_RECORDING != stored[0]) {
+            stored[0] = book.sizeOf(key);
+        }
+    }
+
+    void record(Operation operation, String key, long queueNanos, long executionNanos,
+            boolean success) {
+        final long[] stored = storedBytes.get();
+        final long bytes = success ? Math.max(0, stored[0]) : 0;
+        stored[0] = NOT_RECORDING;
+        final Recorder recorder = recorders.get(operation);
+        recorder.count.incrementAndGet();
+        if (!success) {
+            recorder.errors.incrementAndGet();
+        }
+        recorder.bytes.addAndGet(bytes);
+        recorder.queue.record(queueNanos);
+        recorder.execution.record(executionNanos);
+        if (null != listener) {
+            listener.onOperation(operation, key, queueNanos, executionNanos, bytes, success);
+        }
+    }
+
+    /**
+     * Lists the book to measure the number of keys and their size on disk.
+     */
+    BookStats snapshot() {
+        final Map<Operation, BookStats.OperationStats> operations = new EnumMap<>(Operation.class);
+        for (Map.Entry<Operation, Recorder> entry : recorders.entrySet()) {
+            final Recorder recorder = entry.getValue();
+            operations.put(entry.getKey(), new BookStats.OperationStats(recorder.count.get(),
+                    recorder.errors.get(), recorder.bytes.get(), recorder.queue.percentile(0.5),
+                    recorder.queue.percentile(0.99), recorder.execution.percentile(0.5),
+                    recorder.execution.percentile(0.99)));
+        }
+        return new BookStats(Collections.unmodifiableMap(operations), book.getAllKeys().size(),
+                book.getSize());
+    }
+
+    static BookStats snapshotWithoutOperations(StorageEngine book) {
+        return new BookStats(Collections.<Operation, BookStats.OperationStats>emptyMap(),
+                book.getAllKeys().size(), book.getSize());
+    }
+
+    private static final class Recorder {
+        final AtomicLong count = new AtomicLong();
+
+        final AtomicLong errors = new AtomicLong();
+
+        final AtomicLong bytes = new AtomicLong();
+
+        final LatencyHistogram queue = new LatencyHistogram();
+
+        final LatencyHistogram execution = new LatencyHistogram();
+    }
+}
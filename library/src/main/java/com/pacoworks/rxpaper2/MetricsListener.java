@@ -0,0 +1,44 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+/**
+ * Receives the timing of every operation done on a {@link RxPaperBook} with metrics enabled.
+ * <p/>
+ * Called on the thread the operation ran on, right after it finishes, so implementations should
+ * return quickly.
+ *
+ * @author pakoito
+ */
+public interface MetricsListener {
+    /**
+     * @param operation type of operation
+     * @param key object key, or null for operations on the whole book
+     * @param queueNanos time between subscribing and the operation starting to run
+     * @param executionNanos time the operation took to run
+     * @param bytes size of the stored value for reads and writes that reached storage, 0 otherwise,
+     *            including reads served from memory
+     * @param success whether the operation completed without errors
+     */
+    void onOperation(Operation operation, String key, long queueNanos, long executionNanos,
+            long bytes, boolean success);
+}
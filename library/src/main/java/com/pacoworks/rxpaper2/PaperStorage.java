@@ -0,0 +1,273 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import io.paperdb.Book;
+import io.paperdb.PaperDbException;
+
+/**
+ * {@link StorageEngine} keeping each key in its own file of a Paper {@link Book}.
+ * <p/>
+ * This is the engine used by all the {@link RxPaperBook} factories not taking one. Raw values are
+ * read and written with the same backup file protocol as Paper, but without Paper's locks, so raw
+ * operations on a key shouldn't run concurrently with other writes to the same key.
+ *
+ * @author pakoito
+ */
+public final class PaperStorage implements StorageEngine {
+    private final Book book;
+
+    /**
+     * @param book Paper book to store values in
+     */
+    public PaperStorage(Book book) {
+        this.book = book;
+    }
+
+    @Override
+    public <T> void write(String key, T value) {
+        book.write(key, value);
+    }
+
+    @Override
+    public <T> T read(String key) {
+        return book.read(key);
+    }
+
+    /**
+     * The stored representation is the content of the file at {@link #getPath(String)}.
+     */
+    @Override
+    public byte[] readBytes(String key) {
+        final File file = currentFile(key);
+        if (null == file) {
+            return null;
+        }
+        try {
+            final RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                final byte[] bytes = new byte[(int) input.length()];
+                input.readFully(bytes);
+                return bytes;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't read file " + file, e);
+        }
+    }
+
+    @Override
+    public void writeBytes(String key, byte[] bytes) {
+        replace(key, Channels.newChannel(new ByteArrayInputStream(bytes)), bytes.length);
+    }
+
+    /**
+     * Copies the file of a key to another Paper book, from channel to channel.
+     *
+     * @return bytes copied, or -1 if the key doesn't exist
+     */
+    long transferTo(String key, PaperStorage target) {
+        final File file = currentFile(key);
+        if (null == file) {
+            return -1;
+        }
+        try {
+            final RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                final long length = input.length();
+                target.replace(key, input.getChannel(), length);
+                return length;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't read file " + file, e);
+        }
+    }
+
+    /**
+     * Files hold values in Paper's own format, which wraps the serialized value.
+     */
+    @Override
+    public boolean storesSerialized() {
+        return false;
+    }
+
+    @Override
+    public String getFormat() {
+        return "paper";
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return book.contains(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        book.delete(key);
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        return book.getAllKeys();
+    }
+
+    /**
+     * The book folder is listed once, and each file name is turned into a key as it's iterated.
+     */
+    @Override
+    public Iterator<String> keyIterator() {
+        final KeyListing listing = new KeyListing(book.getPath());
+        return new Iterator<String>() {
+            private String next = listing.next();
+
+            @Override
+            public boolean hasNext() {
+                return null != next;
+            }
+
+            @Override
+            public String next() {
+                if (null == next) {
+                    throw new NoSuchElementException();
+                }
+                final String current = next;
+                next = listing.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void destroy() {
+        book.destroy();
+    }
+
+    @Override
+    public String getPath() {
+        return book.getPath();
+    }
+
+    @Override
+    public String getPath(String key) {
+        return book.getPath(key);
+    }
+
+    @Override
+    public long sizeOf(String key) {
+        return new File(book.getPath(key)).length();
+    }
+
+    @Override
+    public long getSize() {
+        final File[] files = new File(book.getPath()).listFiles();
+        long total = 0;
+        if (null != files) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    private static File backupOf(File original) {
+        return new File(original.getPath() + ".bak");
+    }
+
+    /**
+     * @return the file with the latest complete value for the key, or null if it doesn't exist
+     */
+    private File currentFile(String key) {
+        final File original = new File(book.getPath(key));
+        final File backup = backupOf(original);
+        // Paper restores a backup left by an interrupted write on its next read
+        final File file = backup.exists() ? backup : original;
+        return file.exists() ? file : null;
+    }
+
+    /**
+     * Replaces the file of a key with the same backup protocol as Paper.
+     */
+    private void replace(String key, ReadableByteChannel source, long length) {
+        final File original = new File(book.getPath(key));
+        final File backup = backupOf(original);
+        if (original.exists()) {
+            if (!backup.exists()) {
+                if (!original.renameTo(backup)) {
+                    throw new PaperDbException("Couldn't rename file " + original
+                            + " to backup file " + backup);
+                }
+            } else {
+                //noinspection ResultOfMethodCallIgnored
+                original.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        original.getParentFile().mkdirs();
+        try {
+            final FileOutputStream output = new FileOutputStream(original);
+            try {
+                final FileChannel channel = output.getChannel();
+                long position = 0;
+                while (position < length) {
+                    final long transferred = channel.transferFrom(source, position,
+                            length - position);
+                    if (transferred <= 0) {
+                        throw new EOFException("Source ended after " + position + " of "
+                                + length + " bytes");
+                    }
+                    position += transferred;
+                }
+                channel.force(true);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            // The backup is kept, so the previous value is restored on the next read
+            //noinspection ResultOfMethodCallIgnored
+            original.delete();
+            throw new PaperDbException("Couldn't save raw value for key " + key, e);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        backup.delete();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+/**
+ * Timing of the load of a key by {@link RxPaperBook#preload(java.util.Collection, int)}, for
+ * startup tracing.
+ *
+ * @author pakoito
+ */
+public final class PreloadTiming {
+    public final String key;
+
+    /**
+     * Priority the key was loaded with, the highest it was preloaded with before loading started.
+     */
+    public final int priority;
+
+    /**
+     * Time between queueing the key and starting to load it.
+     */
+    public final long queueNanos;
+
+    /**
+     * Time spent loading the key.
+     */
+    public final long loadNanos;
+
+    /**
+     * Whether the key had a value.
+     */
+    public final boolean found;
+
+    PreloadTiming(String key, int priority, long queueNanos, long loadNanos, boolean found) {
+        this.key = key;
+        this.priority = priority;
+        this.queueNanos = queueNanos;
+        this.loadNanos = loadNanos;
+        this.found = found;
+    }
+
+    @Override
+    public String toString() {
+        return "PreloadTiming{" + "key='" + key + '\'' + ", priority=" + priority
+                + ", queueNanos=" + queueNanos + ", loadNanos=" + loadNanos + ", found=" + found
+                + '}';
+    }
+}
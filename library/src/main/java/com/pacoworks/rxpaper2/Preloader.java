@@ -0,0 +1,209 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Function;
+import io.reactivex.subjects.SingleSubject;
+
+/**
+ * Values loaded ahead of their first read, shared by all the {@link RxPaperBook} instances
+ * working on a book.
+ * <p/>
+ * Loads are queued by priority and run by up to {@link Runtime#availableProcessors()} workers. A
+ * read of a key still queued runs its load right away, and a read of a key being loaded waits for
+ * it, so no key is loaded twice. Loaded values are kept until they're first read, or until their
+ * key is written or deleted.
+ *
+ * @author pakoito
+ */
+final class Preloader {
+    /**
+     * Returned by {@link Load#await()} when the load failed, so the key has to be read again.
+     */
+    static final Object FAILED = new Object();
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static final Comparator<Load> BY_PRIORITY = new Comparator<Load>() {
+        @Override
+        public int compare(Load left, Load right) {
+            if (left.priority != right.priority) {
+                return left.priority > right.priority ? -1 : 1;
+            }
+            return left.sequence < right.sequence ? -1 : (left.sequence == right.sequence ? 0 : 1);
+        }
+    };
+
+    private final ConcurrentMap<String, Load> loads = new ConcurrentHashMap<>();
+
+    private final PriorityBlockingQueue<Load> queue = new PriorityBlockingQueue<>(16, BY_PRIORITY);
+
+    private final AtomicInteger workers = new AtomicInteger();
+
+    private long nextSequence;
+
+    /**
+     * Queues loads for the keys, joining the loads already queued or done. Queued loads are raised
+     * to the given priority if it's higher than their own.
+     */
+    synchronized List<Load> enqueue(Collection<String> keys, int priority,
+            Function<String, Object> loader) {
+        final List<Load> queued = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            Load load = loads.get(key);
+            if (null == load) {
+                load = new Load(key, priority, nextSequence++, loader);
+                loads.put(key, load);
+                queue.add(load);
+            } else if (load.priority < priority && queue.remove(load)) {
+                load.priority = priority;
+                queue.add(load);
+            }
+            queued.add(load);
+        }
+        return queued;
+    }
+
+    /**
+     * Starts workers on the scheduler until all queued loads are running.
+     */
+    void drain(final Scheduler scheduler) {
+        while (true) {
+            final int running = workers.get();
+            if (running >= PARALLELISM || queue.isEmpty()) {
+                return;
+            }
+            if (workers.compareAndSet(running, running + 1)) {
+                scheduler.scheduleDirect(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Load load;
+                            while (null != (load = queue.poll())) {
+                                if (load.claim()) {
+                                    load.run();
+                                }
+                            }
+                        } finally {
+                            workers.decrementAndGet();
+                        }
+                        drain(scheduler);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * @return the load for a key, or null if it wasn't preloaded
+     */
+    Load get(String key) {
+        return loads.get(key);
+    }
+
+    /**
+     * Forgets a load once its value has been read, unless the key was preloaded again since.
+     */
+    void release(Load load) {
+        loads.remove(load.key, load);
+    }
+
+    /**
+     * Forgets the value loaded for a key, as it's no longer current.
+     */
+    void invalidate(String key) {
+        loads.remove(key);
+    }
+
+    void clear() {
+        loads.clear();
+    }
+
+    final class Load {
+        final String key;
+
+        final long sequence;
+
+        private final Function<String, Object> loader;
+
+        private final AtomicInteger state = new AtomicInteger();
+
+        private final long queued = System.nanoTime();
+
+        final SingleSubject<PreloadTiming> done = SingleSubject.create();
+
+        // Written by the enqueuing thread while queued
+        volatile int priority;
+
+        private volatile Object value;
+
+        Load(String key, int priority, long sequence, Function<String, Object> loader) {
+            this.key = key;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.loader = loader;
+        }
+
+        /**
+         * @return the value loaded, null if the key doesn't exist, or {@link #FAILED}
+         */
+        Object await() {
+            if (claim()) {
+                queue.remove(this);
+                run();
+            }
+            try {
+                done.blockingGet();
+            } catch (RuntimeException e) {
+                return FAILED;
+            }
+            return value;
+        }
+
+        private boolean claim() {
+            return state.compareAndSet(0, 1);
+        }
+
+        private void run() {
+            final long started = System.nanoTime();
+            try {
+                value = loader.apply(key);
+            } catch (Throwable t) {
+                loads.remove(key, this);
+                done.onError(t);
+                return;
+            }
+            done.onSuccess(new PreloadTiming(key, priority, started - queued,
+                    System.nanoTime() - started, null != value));
+        }
+    }
+}
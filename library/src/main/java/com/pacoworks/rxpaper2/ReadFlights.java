@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Reads in progress on a book, shared by all the {@link RxPaperBook} instances working on it, so
+ * concurrent reads of the same key hit storage once and share its result.
+ * <p/>
+ * Writes and deletes fence the key once they're done, so reads started afterwards never join a
+ * read that may have seen the previous value.
+ *
+ * @author pakoito
+ */
+final class ReadFlights {
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    // Counted down by every read joining another, so tests can wait for reads to join
+    volatile CountDownLatch joined = new CountDownLatch(0);
+
+    /**
+     * Reads a key from storage, or waits for a read of the same key already in progress.
+     */
+    Object read(StorageEngine storage, String key) {
+        final Flight flight = new Flight();
+        final Flight existing = flights.putIfAbsent(key, flight);
+        if (null != existing) {
+            joined.countDown();
+            return existing.await(storage, key);
+        }
+        try {
+            flight.value = storage.read(key);
+        } catch (RuntimeException e) {
+            flight.error = e;
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+            flight.done.countDown();
+        }
+        return flight.value;
+    }
+
+    /**
+     * Stops later reads of a key from joining the read in progress, after the key has changed.
+     */
+    void fence(String key) {
+        flights.remove(key);
+    }
+
+    void fenceAll() {
+        flights.clear();
+    }
+
+    private static final class Flight {
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // Published by counting down the latch
+        Object value;
+
+        RuntimeException error;
+
+        Object await(StorageEngine storage, String key) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return storage.read(key);
+            }
+            if (null != error) {
+                throw error;
+            }
+            return value;
+        }
+    }
+}
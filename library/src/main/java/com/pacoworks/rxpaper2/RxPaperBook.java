@@ -24,23 +24,46 @@ package com.pacoworks.rxpaper2;
 import android.content.Context;
 import android.util.Pair;
 
+import com.esotericsoftware.kryo.Serializer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.paperdb.Book;
 import io.paperdb.Paper;
+import io.paperdb.PaperDbException;
 import io.reactivex.BackpressureStrategy;
 import io.reactivex.Completable;
+import io.reactivex.Emitter;
 import io.reactivex.Flowable;
 import io.reactivex.Scheduler;
 import io.reactivex.Single;
+import io.reactivex.flowables.GroupedFlowable;
 import io.reactivex.functions.Action;
+import io.reactivex.functions.BiConsumer;
+import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
 import io.reactivex.functions.Predicate;
 import io.reactivex.schedulers.Schedulers;
-import io.reactivex.subjects.PublishSubject;
-import io.reactivex.subjects.Subject;
 
 /**
  * Adapter class with a new interface to perform PaperDB operations.
@@ -51,28 +74,59 @@ import io.reactivex.subjects.Subject;
 public class RxPaperBook {
     private static final AtomicBoolean INITIALIZED = new AtomicBoolean();
 
-    final Book book;
-    final Scheduler scheduler;
-    final Subject<Pair<String, ?>> updates = PublishSubject.<Pair<String, ?>>create().toSerialized();
+    private static final ConcurrentMap<String, UpdateBus> UPDATES = new ConcurrentHashMap<>();
 
-    private RxPaperBook(Scheduler scheduler) {
-        this.scheduler = scheduler;
-        book = Paper.book();
-    }
+    private static final ConcurrentMap<String, KeyIndex> INDEXES = new ConcurrentHashMap<>();
 
-    private RxPaperBook(String customBook, Scheduler scheduler) {
-        this.scheduler = scheduler;
-        book = Paper.book(customBook);
-    }
+    private static final ConcurrentMap<String, TransactionJournal> JOURNALS =
+            new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, Preloader> PRELOADS = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, ReadFlights> FLIGHTS = new ConcurrentHashMap<>();
 
-    private RxPaperBook(Scheduler scheduler, String path) {
+    final StorageEngine book;
+    final Scheduler scheduler;
+    final UpdateBus updates;
+    final KeyIndex index;
+    final TransactionJournal journal;
+    final Preloader preloads;
+    final ReadFlights flights;
+
+    // Optional features, only set on new instances before they are returned
+    ValueCache cache;
+    HotTier hotTier;
+    Compression compression;
+    KeyLanes lanes;
+    Metrics metrics;
+    GroupCommit groupCommit;
+    WriteBehind writeBehind;
+
+    private RxPaperBook(StorageEngine book, Scheduler scheduler) {
+        this.book = book;
         this.scheduler = scheduler;
-        book = Paper.bookOn(path);
+        this.updates = updatesFor(book);
+        this.index = indexFor(book);
+        this.journal = journalFor(book);
+        this.preloads = preloadsFor(book);
+        this.flights = flightsFor(book);
     }
 
-    private RxPaperBook(String path, String customBook, Scheduler scheduler) {
-        this.scheduler = scheduler;
-        book = Paper.bookOn(path, customBook);
+    private RxPaperBook(RxPaperBook source) {
+        this.book = source.book;
+        this.scheduler = source.scheduler;
+        this.updates = source.updates;
+        this.index = source.index;
+        this.journal = source.journal;
+        this.preloads = source.preloads;
+        this.flights = source.flights;
+        this.cache = source.cache;
+        this.hotTier = source.hotTier;
+        this.compression = source.compression;
+        this.lanes = source.lanes;
+        this.metrics = source.metrics;
+        this.groupCommit = source.groupCommit;
+        this.writeBehind = source.writeBehind;
     }
 
     /**
@@ -88,6 +142,89 @@ public class RxPaperBook {
         }
     }
 
+    /**
+     * Adds a custom serializer for a class, used by {@link Paper} books and by the other storage
+     * engines and compression of this library.
+     * <p/>
+     * As with {@link Paper#addSerializer(Class, Serializer)}, serializers have to be added before
+     * any value of their class is saved or read. Serializers added directly to {@link Paper} are
+     * only used by Paper books.
+     *
+     * @param clazz class serialized
+     * @param serializer serializer for the class
+     */
+    public static <T> void addSerializer(Class<T> clazz, Serializer<T> serializer) {
+        Paper.addSerializer(clazz, serializer);
+        KryoSerializer.addSerializer(clazz, serializer);
+    }
+
+    /**
+     * All instances working on the same storage location share their updates, so writes done
+     * through any of them can be observed by the others.
+     */
+    private static UpdateBus updatesFor(StorageEngine book) {
+        final String path = book.getPath();
+        final UpdateBus updates = UPDATES.get(path);
+        if (null != updates) {
+            return updates;
+        }
+        final UpdateBus created = new UpdateBus();
+        final UpdateBus existing = UPDATES.putIfAbsent(path, created);
+        return null == existing ? created : existing;
+    }
+
+    private static KeyIndex indexFor(StorageEngine book) {
+        final String path = book.getPath();
+        final KeyIndex index = INDEXES.get(path);
+        if (null != index) {
+            return index;
+        }
+        final KeyIndex created = new KeyIndex();
+        final KeyIndex existing = INDEXES.putIfAbsent(path, created);
+        return null == existing ? created : existing;
+    }
+
+    private static TransactionJournal journalFor(StorageEngine book) {
+        final String path = book.getPath();
+        final TransactionJournal journal = JOURNALS.get(path);
+        if (null != journal) {
+            return journal;
+        }
+        final TransactionJournal created = new TransactionJournal(path);
+        final TransactionJournal existing = JOURNALS.putIfAbsent(path, created);
+        return null == existing ? created : existing;
+    }
+
+    /**
+     * Forgets the journal of a book, so the next instance opened on it recovers it as happens after
+     * the process restarts.
+     */
+    static void forgetJournal(String path) {
+        JOURNALS.remove(path);
+    }
+
+    private static Preloader preloadsFor(StorageEngine book) {
+        final String path = book.getPath();
+        final Preloader preloads = PRELOADS.get(path);
+        if (null != preloads) {
+            return preloads;
+        }
+        final Preloader created = new Preloader();
+        final Preloader existing = PRELOADS.putIfAbsent(path, created);
+        return null == existing ? created : existing;
+    }
+
+    private static ReadFlights flightsFor(StorageEngine book) {
+        final String path = book.getPath();
+        final ReadFlights flights = FLIGHTS.get(path);
+        if (null != flights) {
+            return flights;
+        }
+        final ReadFlights created = new ReadFlights();
+        final ReadFlights existing = FLIGHTS.putIfAbsent(path, created);
+        return null == existing ? created : existing;
+    }
+
     private static void assertInitialized() {
         if (!INITIALIZED.get()) {
             throw new IllegalStateException(
@@ -104,7 +241,7 @@ public class RxPaperBook {
      */
     public static RxPaperBook with() {
         assertInitialized();
-        return new RxPaperBook(Schedulers.io());
+        return new RxPaperBook(new PaperStorage(Paper.book()), Schedulers.io());
     }
 
     /**
@@ -117,7 +254,7 @@ public class RxPaperBook {
      */
     public static RxPaperBook with(String customBook) {
         assertInitialized();
-        return new RxPaperBook(customBook, Schedulers.io());
+        return new RxPaperBook(new PaperStorage(Paper.book(customBook)), Schedulers.io());
     }
 
     /**
@@ -130,7 +267,7 @@ public class RxPaperBook {
      */
     public static RxPaperBook with(Scheduler scheduler) {
         assertInitialized();
-        return new RxPaperBook(scheduler);
+        return new RxPaperBook(new PaperStorage(Paper.book()), scheduler);
     }
 
     /**
@@ -144,7 +281,7 @@ public class RxPaperBook {
      */
     public static RxPaperBook with(String customBook, Scheduler scheduler) {
         assertInitialized();
-        return new RxPaperBook(customBook, scheduler);
+        return new RxPaperBook(new PaperStorage(Paper.book(customBook)), scheduler);
     }
 
     /**
@@ -158,7 +295,7 @@ public class RxPaperBook {
      */
     public static RxPaperBook withPath(String path) {
         assertInitialized();
-        return new RxPaperBook(Schedulers.io(), path);
+        return new RxPaperBook(new PaperStorage(Paper.bookOn(path)), Schedulers.io());
     }
 
     /**
@@ -173,7 +310,7 @@ public class RxPaperBook {
      */
     public static RxPaperBook withPath(String path, Scheduler scheduler) {
         assertInitialized();
-        return new RxPaperBook(scheduler, path);
+        return new RxPaperBook(new PaperStorage(Paper.bookOn(path)), scheduler);
     }
 
     /**
@@ -188,7 +325,7 @@ public class RxPaperBook {
      */
     public static RxPaperBook withPath(String path, String customBook) {
         assertInitialized();
-        return new RxPaperBook(path, customBook, Schedulers.io());
+        return new RxPaperBook(new PaperStorage(Paper.bookOn(path, customBook)), Schedulers.io());
     }
 
     /**
@@ -204,264 +341,1684 @@ public class RxPaperBook {
      */
     public static RxPaperBook withPath(String path, String customBook, Scheduler scheduler) {
         assertInitialized();
-        return new RxPaperBook(path, customBook, scheduler);
+        return new RxPaperBook(new PaperStorage(Paper.bookOn(path, customBook)), scheduler);
     }
 
     /**
-     * Saves most types of POJOs or collections in {@link Book} storage.
+     * Open a book stored by a custom {@link StorageEngine} running its operations on
+     * {@link Schedulers#io()}.
      * <p/>
-     * To deserialize correctly it is recommended to have an all-args constructor, but other types
-     * may be available.
+     * Requires calling {@link RxPaperBook#init(Context)} at least once beforehand.
      *
-     * @param key object key is used as part of object's file name
-     * @param value object to save, must have no-arg constructor, can't be null.
-     * @return this Book instance
+     * @param storage storage engine
+     * @return new RxPaperBook
      */
-    public <T> Completable write(final String key, final T value) {
-        return Completable.fromAction(new Action() {
-            @Override
-            public void run() {
-                book.write(key, value);
-            }
-        })
-        // FIXME in RxJava1 the error would be propagated to updates.
-        // In RxJava2 the error happens on the Completable this method returns.
-        // This andThen block reproduces the behavior in RxJava1.
-        .andThen(Completable.fromAction(new Action() {
-            @Override
-            public void run() {
-                try {
-                    updates.onNext(Pair.create(key, value));
-                } catch (Throwable t) {
-                    updates.onError(t);
-                }
-            }
-        })).subscribeOn(scheduler);
+    public static RxPaperBook withStorage(StorageEngine storage) {
+        return withStorage(storage, Schedulers.io());
     }
 
     /**
-     * Instantiates saved object using original object class (e.g. LinkedList). Support limited
-     * backward and forward compatibility: removed fields are ignored, new fields have their default
-     * values.
+     * Open a book stored by a custom {@link StorageEngine} running its operations on a provided
+     * scheduler.
+     * <p/>
+     * Requires calling {@link RxPaperBook#init(Context)} at least once beforehand.
      *
-     * @param key object key to read
-     * @param defaultValue value to be returned if key doesn't exist
-     * @return the saved object instance or defaultValue
+     * @param storage storage engine
+     * @param scheduler scheduler where operations will be run
+     * @return new RxPaperBook
      */
-    public <T> Single<T> read(final String key, final T defaultValue) {
-        return Single.fromCallable(new Callable<T>() {
-            @Override
-            public T call() {
-                return book.read(key, defaultValue);
-            }
-        }).subscribeOn(scheduler);
+    public static RxPaperBook withStorage(StorageEngine storage, Scheduler scheduler) {
+        assertInitialized();
+        return new RxPaperBook(storage, scheduler);
     }
 
     /**
-     * Instantiates saved object using original object class (e.g. LinkedList). Support limited
-     * backward and forward compatibility: removed fields are ignored, new fields have their default
-     * values.
+     * Returns a view of this book that serves {@link #read(String)}, {@link #read(String, Object)},
+     * {@link #contains(String)} and {@link #exists(String)} from a bounded in-memory LRU cache.
+     * <p/>
+     * Writes, deletes, imports and destroys done through any instance on the same book keep the
+     * cache coherent. Cached instances are shared between readers, so values should be treated as
+     * immutable. Changes made to the book's files outside this library are not seen by the cache.
      *
-     * @param key object key to read
-     * @return the saved object instance
+     * @param maxEntries maximum number of keys kept in memory
+     * @return new RxPaperBook sharing the book, scheduler and updates of this instance
      */
-    public <T> Single<T> read(final String key) {
-        return Single.fromCallable(new Callable<T>() {
-            @Override
-            public T call() {
-                final T read = book.read(key);
-                if (null == read) {
-                    throw new IllegalArgumentException("Key " + key + " not found");
-                }
-                return read;
-            }
-        }).subscribeOn(scheduler);
+    public RxPaperBook withCache(int maxEntries) {
+        final RxPaperBook cached = new RxPaperBook(this);
+        cached.cache = new ValueCache(maxEntries);
+        updates.addListener(cached.cache);
+        return cached;
     }
 
     /**
-     * Delete saved object for given key if it is exist.
+     * Returns a view of this book with a hot tier in memory holding the most recently used values,
+     * in front of its storage as the cold tier.
+     * <p/>
+     * Values are promoted when read from storage and demoted once the tier is over either limit,
+     * least recently used first. Entries weigh the size of their stored representation.
+     *
+     * @param maxEntries maximum number of values kept in memory
+     * @param maxBytes maximum stored size of the values kept in memory
+     * @return new RxPaperBook sharing the book, scheduler and updates of this instance
+     * @see #withHotTier(int, long, HotTier.Promotion, HotTier.Demotion)
      */
-    public Completable delete(final String key) {
-        return Completable.fromAction(new Action() {
-            @Override
-            public void run() {
-                book.delete(key);
-            }
-        }).subscribeOn(scheduler);
+    public RxPaperBook withHotTier(int maxEntries, long maxBytes) {
+        return withHotTier(maxEntries, maxBytes, HotTier.Promotion.ON_READ,
+                HotTier.Demotion.LEAST_RECENTLY_USED);
     }
 
     /**
-     * Check if an object with the given key is saved in Book storage.
+     * Returns a view of this book with a hot tier in memory in front of its storage as the cold
+     * tier, so reads of hot values never touch disk while the book can still exceed memory.
+     * <p/>
+     * Writes always reach storage, and values are kept in memory as decided by the promotion and
+     * demotion policies. Writes, deletes, imports, transfers and destroys done through any instance
+     * on the same book keep the tier coherent. Values in memory are shared between readers, so they
+     * should be treated as immutable. Hit ratios for each tier are available from
+     * {@link #tierStats()}.
      *
-     * @param key object key
-     * @return true if object with given key exists in Book storage, false otherwise
-     * @deprecated As of PaperDB release 2.6, replaced by {@link #contains(String)}}
+     * @param maxEntries maximum number of values kept in memory
+     * @param maxBytes maximum stored size of the values kept in memory
+     * @param promotion when values enter the hot tier
+     * @param demotion which values leave the hot tier once it's full
+     * @return new RxPaperBook sharing the book, scheduler and updates of this instance
      */
-    public Single<Boolean> exists(final String key) {
-        return Single.fromCallable(new Callable<Boolean>() {
-            @Override
-            public Boolean call() {
-                //noinspection deprecation
-                return book.exist(key);
-            }
-        }).subscribeOn(scheduler);
+    public RxPaperBook withHotTier(int maxEntries, long maxBytes, HotTier.Promotion promotion,
+            HotTier.Demotion demotion) {
+        final RxPaperBook tiered = new RxPaperBook(this);
+        tiered.hotTier = new HotTier(book, maxEntries, maxBytes, promotion, demotion);
+        updates.addListener(tiered.hotTier.listener());
+        return tiered;
     }
 
     /**
-     * Returns all keys for objects in {@link Book}.
+     * Returns a view of this book that compresses values with {@link DeflateCodec} when their
+     * serialized size is over a threshold.
      *
-     * @return all keys
+     * @param thresholdBytes minimum serialized size of the values compressed
+     * @return new RxPaperBook sharing the book, scheduler and updates of this instance
+     * @see #withCompression(int, CompressionCodec)
      */
-    public Single<List<String>> keys() {
-        return Single.fromCallable(new Callable<List<String>>() {
-            @Override
-            public List<String> call() {
-                return book.getAllKeys();
-            }
-        }).subscribeOn(scheduler);
+    public RxPaperBook withCompression(int thresholdBytes) {
+        return withCompression(thresholdBytes, new DeflateCodec());
     }
 
     /**
-     * Destroys all data saved in {@link Book}.
+     * Returns a view of this book that compresses values when their serialized size is over a
+     * threshold, trading CPU for disk I/O on large values.
+     * <p/>
+     * Compressed values are marked as such in storage, so a book can mix compressed and plain
+     * values, and any instance reads both. Values compressed with a codec other than
+     * {@link DeflateCodec} can only be read by instances using a codec with the same name. Values
+     * that don't get smaller are saved as they are. Bytes saved and time spent are available from
+     * {@link #compressionStats()}.
+     * <p/>
+     * Values are serialized with the serializers added through
+     * {@link #addSerializer(Class, Serializer)}, and only up to the threshold to measure those saved
+     * as they are.
+     *
+     * @param thresholdBytes minimum serialized size of the values compressed
+     * @param codec compression algorithm
+     * @return new RxPaperBook sharing the book, scheduler and updates of this instance
      */
-    public Completable destroy() {
-        return Completable.fromAction(new Action() {
-            @Override
-            public void run() {
-                book.destroy();
-            }
-        }).subscribeOn(scheduler);
+    public RxPaperBook withCompression(int thresholdBytes, CompressionCodec codec) {
+        final RxPaperBook compressed = new RxPaperBook(this);
+        compressed.compression = new Compression(thresholdBytes, codec);
+        return compressed;
     }
 
     /**
-     * Naive update subscription for saved objects. Subscription is filtered by key and type.
+     * Returns a view of this book that runs operations on single keys in the order they are
+     * subscribed to, while operations on unrelated keys run in parallel.
+     * <p/>
+     * Keys are hashed onto the given number of lanes, each one running on a single worker of the
+     * scheduler while it has operations queued. Idle lanes hold no worker, so striped views can be
+     * created freely. Operations on the whole book still run directly on the scheduler.
      *
-     * @param key object key
-     * @param backPressureStrategy how the backpressure is handled downstream
-     * @return hot observable
+     * @param stripes number of lanes
+     * @return new RxPaperBook sharing the book, scheduler and updates of this instance
      */
-    public <T> Flowable<T> observe(final String key, final Class<T> clazz, BackpressureStrategy backPressureStrategy) {
-        return updates.toFlowable(backPressureStrategy)
-                .filter(new Predicate<Pair<String, ?>>() {
-                    @Override
-                    public boolean test(Pair<String, ?> stringPair) {
-                        return stringPair.first.equals(key);
-                    }
-                }).map(new Function<Pair<String, ?>, Object>() {
-                    @Override
-                    public Object apply(Pair<String, ?> stringPair) {
-                        return stringPair.second;
-                    }
-                }).ofType(clazz);
+    public RxPaperBook withStripes(int stripes) {
+        final RxPaperBook striped = new RxPaperBook(this);
+        striped.lanes = new KeyLanes(scheduler, stripes);
+        return striped;
     }
 
     /**
-     * Naive update subscription for saved objects.
+     * Returns the number of operations queued or running on each lane enabled by
+     * {@link #withStripes(int)}.
+     *
+     * @return depth of each lane, empty if this instance is not striped
+     */
+    public int[] stripeDepths() {
+        return null == lanes ? new int[0] : lanes.depths();
+    }
+
+    /**
+     * Returns a view of this book where writes done during a window are saved together, writing
+     * up to {@link Runtime#availableProcessors()} keys in parallel and timing the windows on
+     * {@link Schedulers#computation()}.
+     *
+     * @param window time writes wait for others to join their group
+     * @param unit unit of window
+     * @return new RxPaperBook sharing the book, scheduler and updates of this instance
+     * @see #withGroupCommit(long, TimeUnit, int, Scheduler)
+     */
+    public RxPaperBook withGroupCommit(long window, TimeUnit unit) {
+        return withGroupCommit(window, unit, Runtime.getRuntime().availableProcessors(),
+                Schedulers.computation());
+    }
+
+    /**
+     * Returns a view of this book where writes done during a window are saved together.
      * <p/>
-     * This method will return all objects for a key casted unsafely, and throw
-     * {@link ClassCastException} if types do not match. For a safely checked and filtered version
-     * use {@link this#observe(String, Class, BackpressureStrategy)}.
+     * The window opens with the first write and every write done through the returned instance
+     * before it closes joins the same group. Each group is saved as a single batch after the
+     * previous one, so syncing each file to disk overlaps with the others. Writes complete when
+     * their whole group is saved, and fail if any write in the group fails. Only the last value
+     * written for a key in a group is saved.
+     * <p/>
+     * Views created from the returned instance share its groups, and each write is saved through
+     * the view it was done on. Deletes, raw writes, transactions, imports, transfers and destroys
+     * through them save the open group first, so they never land before earlier grouped writes.
      *
-     * @param key object key
-     * @param backPressureStrategy how the backpressure is handled downstream
-     * @return hot observable
+     * @param window time writes wait for others to join their group
+     * @param unit unit of window
+     * @param parallelism maximum number of keys of a group written concurrently
+     * @param timerScheduler scheduler where windows are timed
+     * @return new RxPaperBook sharing the book, scheduler and updates of this instance
      */
-    @SuppressWarnings("unchecked")
-    public <T> Flowable<T> observeUnsafe(final String key, BackpressureStrategy backPressureStrategy) {
-        return updates.toFlowable(backPressureStrategy)
-                .filter(new Predicate<Pair<String, ?>>() {
-                    @Override
-                    public boolean test(Pair<String, ?> stringPair) {
-                        return stringPair.first.equals(key);
-                    }
-                }).map(new Function<Pair<String, ?>, T>() {
-                    @Override
-                    public T apply(Pair<String, ?> stringPair) {
-                        return (T) stringPair.second;
-                    }
-                });
+    public RxPaperBook withGroupCommit(long window, TimeUnit unit, int parallelism,
+            Scheduler timerScheduler) {
+        final RxPaperBook grouped = new RxPaperBook(this);
+        grouped.groupCommit = new GroupCommit(window, unit, timerScheduler, parallelism);
+        return grouped;
     }
 
     /**
-     * Naive update subscription for saved objects. Subscription is filtered by type.
+     * Returns a view of this book where writes and deletes complete once they're buffered in
+     * memory, and are saved in the background on the scheduler.
+     * <p/>
+     * Reads, contains and key listings on the returned instance, and on views created from it, see
+     * buffered changes before they're saved. Each change is saved through the view it was made on,
+     * so features like caching or compression added to a view after this one apply to its changes.
+     * Writes wait for space while the buffer is full, and a {@link #destroy()} waits for the buffer
+     * to be saved first. Null values are rejected when written. Failures saving buffered changes
+     * are reported to the {@link #flush()} calls waiting for them, or else kept and reported by
+     * the next flush, write or delete, which isn't buffered.
      *
-     * @param backPressureStrategy how the backpressure is handled downstream
-     * @return hot observable
+     * @param capacity maximum number of keys with changes not saved yet
+     * @return new RxPaperBook sharing the book, scheduler and updates of this instance
      */
-    public <T> Flowable<T> observeAll(final Class<T> clazz, BackpressureStrategy backPressureStrategy) {
-        return updates.toFlowable(backPressureStrategy)
-                .map(new Function<Pair<String, ?>, Object>() {
-                    @Override
-                    public Object apply(Pair<String, ?> stringPair) {
-                        return stringPair.second;
-                    }
-                }).ofType(clazz);
+    public RxPaperBook withWriteBehind(int capacity) {
+        final RxPaperBook buffered = new RxPaperBook(this);
+        buffered.writeBehind = new WriteBehind(buffered, capacity);
+        return buffered;
     }
 
     /**
-     * Naive update subscription for saved objects.
+     * Saves the changes buffered by {@link #withWriteBehind(int)}, and the writes grouped by
+     * {@link #withGroupCommit(long, TimeUnit)} without waiting for their window to close.
+     *
+     * @return completes once every change buffered or grouped before subscribing has been saved, or
+     *         immediately if this instance isn't buffered or grouped
+     */
+    public Completable flush() {
+        final Completable buffered = null == writeBehind
+                ? Completable.complete()
+                : writeBehind.flush();
+        return null == groupCommit ? buffered : buffered.andThen(groupCommit.flush());
+    }
+
+    /**
+     * Saves the changes buffered by {@link #withWriteBehind(int)}, and makes later writes and
+     * deletes through this instance fail with {@link IllegalStateException}.
+     *
+     * @return completes once every change buffered has been saved, or immediately if this
+     *         instance isn't buffered
+     */
+    public Completable close() {
+        return null == writeBehind ? Completable.complete() : writeBehind.close();
+    }
+
+    /**
+     * Returns a view of this book that records the count, latency and size of its operations.
+     *
+     * @return new RxPaperBook sharing the book, scheduler and updates of this instance
+     * @see #stats()
+     */
+    public RxPaperBook withMetrics() {
+        return withMetrics(null);
+    }
+
+    /**
+     * Returns a view of this book that records the count, latency and size of its operations,
+     * forwarding each one to a listener as it completes.
      * <p/>
-     * This method will return all objects casted unsafely, and throw
-     * {@link ClassCastException} if types do not match. For a safely checked and filtered version
-     * use {@link this#observeAll(Class, BackpressureStrategy)}.
+     * The listener is called on the thread that ran the operation, so it should return quickly.
      *
-     * @param backPressureStrategy how the backpressure is handled downstream
-     * @return hot observable
+     * @param listener receiver of every operation recorded, can be null
+     * @return new RxPaperBook sharing the book, scheduler and updates of this instance
+     * @see #stats()
      */
-    @SuppressWarnings("unchecked")
-    public <T> Flowable<T> observeAllUnsafe(BackpressureStrategy backPressureStrategy) {
-        return updates.toFlowable(backPressureStrategy)
-                .map(new Function<Pair<String, ?>, T>() {
-                    @Override
-                    public T apply(Pair<String, ?> stringPair) {
-                        return (T) stringPair.second;
-                    }
-                });
+    public RxPaperBook withMetrics(MetricsListener listener) {
+        final RxPaperBook measured = new RxPaperBook(this);
+        measured.metrics = new Metrics(book, listener);
+        return measured;
     }
 
     /**
-     * Checks whether the current book contains the key given
+     * Returns the operation metrics enabled by {@link #withMetrics()} together with the number of
+     * keys and size on disk of the book.
      *
-     * @param key the key to look up
-     * @return true is the book contains a value for the given key
+     * @return current book stats, without operations if this instance has no metrics
      */
-    public Single<Boolean> contains(final String key) {
-        return Single.fromCallable(new Callable<Boolean>() {
+    public Single<BookStats> stats() {
+        return Single.fromCallable(new Callable<BookStats>() {
             @Override
-            public Boolean call() {
-                return book.contains(key);
+            public BookStats call() {
+                return null == metrics
+                        ? Metrics.snapshotWithoutOperations(book)
+                        : metrics.snapshot();
             }
         }).subscribeOn(scheduler);
     }
 
     /**
-     * Returns the path of the current book
+     * Periodically emits {@link #stats()}, starting immediately. Snapshots are skipped while the
+     * previous one is being taken or the subscriber isn't requesting more.
      *
-     * @return the path to the book
+     * @param period time between snapshots
+     * @param unit unit of period
+     * @return cold flowable of book stats
      */
-    public Single<String> getPath() {
-        return Single.fromCallable(new Callable<String>() {
-            @Override
-            public String call() {
-                return book.getPath();
-            }
-        }).subscribeOn(scheduler);
+    public Flowable<BookStats> stats(long period, TimeUnit unit) {
+        return Flowable.interval(0, period, unit)
+                .onBackpressureDrop()
+                .concatMapSingle(new Function<Long, Single<BookStats>>() {
+                    @Override
+                    public Single<BookStats> apply(Long tick) {
+                        return stats();
+                    }
+                });
     }
 
     /**
-     * Returns the path of the data stored at the key passed as a parameter.
-     * The returned path does not exist if the method has been called prior
-     * saving data for the given key.
+     * Returns the hit and miss counters of the cache enabled by {@link #withCache(int)}.
      *
-     * @param key the key to look up
-     * @return the path to the value stored at the key
+     * @return current cache counters, all zero if this instance is not cached
      */
-    public Single<String> getPath(final String key) {
-        return Single.fromCallable(new Callable<String>() {
-            @Override
-            public String call() {
-                return book.getPath(key);
-            }
-        }).subscribeOn(scheduler);
+    public CacheStats cacheStats() {
+        return null == cache ? CacheStats.EMPTY : cache.stats();
+    }
+
+    /**
+     * Returns the counters of the compression enabled by
+     * {@link #withCompression(int, CompressionCodec)}.
+     *
+     * @return current compression counters, all zero if this instance doesn't compress
+     */
+    public CompressionStats compressionStats() {
+        return null == compression ? CompressionStats.EMPTY : compression.stats();
+    }
+
+    /**
+     * Returns the hit counters of the hot tier enabled by
+     * {@link #withHotTier(int, long, HotTier.Promotion, HotTier.Demotion)}.
+     *
+     * @return current tier counters, all zero if this instance has no hot tier
+     */
+    public TierStats tierStats() {
+        return null == hotTier ? TierStats.EMPTY : hotTier.stats();
+    }
+
+    /**
+     * Saves most types of POJOs or collections in {@link Book} storage.
+     * <p/>
+     * To deserialize correctly it is recommended to have an all-args constructor, but other types
+     * may be available.
+     *
+     * @param key object key is used as part of object's file name
+     * @param value object to save, must have no-arg constructor, can't be null.
+     * @return this Book instance
+     */
+    public <T> Completable write(final String key, final T value) {
+        if (null != writeBehind) {
+            return writeBehind.put(this, key, value);
+        }
+        if (null != groupCommit) {
+            return groupCommit.write(this, key, value);
+        }
+        return measured(Operation.WRITE, key, new Action() {
+            @Override
+            public void run() {
+                writeInternal(key, value);
+            }
+        })
+        // FIXME in RxJava1 the error would be propagated to updates.
+        // In RxJava2 the error happens on the Completable this method returns.
+        // This andThen block reproduces the behavior in RxJava1.
+        .andThen(Completable.fromAction(new Action() {
+            @Override
+            public void run() {
+                updates.publish(key, value);
+            }
+        }));
+    }
+
+    /**
+     * Saves the stored representation of a value without serializing it, as returned by
+     * {@link #readBytes(String)} from a book on the same type of storage.
+     * <p/>
+     * The value is never deserialized, so observers of the key aren't notified, and the change is
+     * published to {@link #changes(BackpressureStrategy)} as a {@link ChangeEvent.Written} without
+     * value. Any value for the key held in memory by any instance on the book is dropped, and read
+     * again from storage when needed, including the current value given to new observers by
+     * {@link #observeWithInitial(String, Class, BackpressureStrategy)}.
+     *
+     * @param key object key
+     * @param bytes stored bytes of the value, can't be null
+     */
+    public Completable writeBytes(final String key, final byte[] bytes) {
+        return flush().andThen(measured(Operation.WRITE, key, new Action() {
+            @Override
+            public void run() {
+                if (null == bytes) {
+                    throw new PaperDbException("Paper doesn't support writing null root values");
+                }
+                try {
+                    book.writeBytes(key, bytes);
+                    if (null != metrics) {
+                        metrics.stored(bytes.length);
+                    }
+                } finally {
+                    forget(key);
+                    updates.invalidate(key);
+                }
+                index.add(key);
+                updates.publishRaw(key);
+            }
+        }));
+    }
+
+    /**
+     * Copies the values of this book whose keys pass a filter to another book, transferring up to
+     * {@link Runtime#availableProcessors()} keys in parallel.
+     *
+     * @param target book to copy values to
+     * @param keyFilter selects the keys to copy
+     * @return progress after each key copied
+     * @see #copyTo(RxPaperBook, Predicate, int)
+     */
+    public Flowable<CopyProgress> copyTo(RxPaperBook target, Predicate<String> keyFilter) {
+        return copyTo(target, keyFilter, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Copies the values of this book whose keys pass a filter to another book, replacing any values
+     * for the same keys there.
+     * <p/>
+     * Values are copied without deserializing them when both books use the same type of storage,
+     * and between Paper books each file is copied from channel to channel. Keys are listed as they
+     * are copied, so memory use doesn't depend on the size of the book. Observers of single keys
+     * of the target book aren't notified, but new observers from
+     * {@link #observeWithInitial(String, Class, BackpressureStrategy)} start from the copied
+     * values, and once the copy ends a single {@link ChangeEvent.Imported} is published on the
+     * target with the number of keys copied. Changes buffered by {@link #withWriteBehind(int)} on
+     * either book are saved first, and keys written while the copy runs may or may not be copied.
+     *
+     * @param target book to copy values to, on a different location than this one
+     * @param keyFilter selects the keys to copy
+     * @param parallelism maximum number of keys copied at the same time
+     * @return progress after each key copied
+     */
+    public Flowable<CopyProgress> copyTo(RxPaperBook target, Predicate<String> keyFilter,
+            int parallelism) {
+        return transfer(target, keyFilter, parallelism, false);
+    }
+
+    /**
+     * Moves the values of this book whose keys pass a filter to another book, transferring up to
+     * {@link Runtime#availableProcessors()} keys in parallel.
+     *
+     * @param target book to move values to
+     * @param keyFilter selects the keys to move
+     * @return progress after each key moved
+     * @see #moveTo(RxPaperBook, Predicate, int)
+     */
+    public Flowable<CopyProgress> moveTo(RxPaperBook target, Predicate<String> keyFilter) {
+        return moveTo(target, keyFilter, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Moves the values of this book whose keys pass a filter to another book, as
+     * {@link #copyTo(RxPaperBook, Predicate, int)} does, deleting each key from this book once it
+     * has been saved on the target and publishing a {@link ChangeEvent.Deleted} for it.
+     *
+     * @param target book to move values to, on a different location than this one
+     * @param keyFilter selects the keys to move
+     * @param parallelism maximum number of keys moved at the same time
+     * @return progress after each key moved
+     */
+    public Flowable<CopyProgress> moveTo(RxPaperBook target, Predicate<String> keyFilter,
+            int parallelism) {
+        return transfer(target, keyFilter, parallelism, true);
+    }
+
+    /**
+     * Writes every value of this book to a single archive, for backups or to seed other books.
+     * <p/>
+     * Values are written one at a time in their stored representation, so memory use doesn't
+     * depend on the size of the book. The archive starts with an index of all keys, and everything
+     * after it can be deflated. Changes buffered by {@link #withWriteBehind(int)} are saved first.
+     *
+     * @param output stream to write to, flushed but not closed
+     * @param compress whether to deflate the archive
+     * @see #importFrom(InputStream)
+     */
+    public Completable exportTo(final OutputStream output, final boolean compress) {
+        return flush().andThen(Completable.fromAction(new Action() {
+            @Override
+            public void run() throws Exception {
+                journal.recoverOnce(RxPaperBook.this);
+                BookArchive.write(book, output, compress);
+            }
+        }).subscribeOn(scheduler));
+    }
+
+    /**
+     * Writes every value of this book to an archive file, as
+     * {@link #exportTo(OutputStream, boolean)} does. The file is deleted if the export fails.
+     *
+     * @param file file to write to, replaced if it exists
+     * @param compress whether to deflate the archive
+     */
+    public Completable exportTo(final File file, final boolean compress) {
+        return flush().andThen(Completable.fromAction(new Action() {
+            @Override
+            public void run() throws Exception {
+                journal.recoverOnce(RxPaperBook.this);
+                final OutputStream output = new FileOutputStream(file);
+                boolean success = false;
+                try {
+                    BookArchive.write(book, output, compress);
+                    output.close();
+                    success = true;
+                } finally {
+                    if (!success) {
+                        output.close();
+                        //noinspection ResultOfMethodCallIgnored
+                        file.delete();
+                    }
+                }
+            }
+        }).subscribeOn(scheduler));
+    }
+
+    /**
+     * Saves every value of an archive written by {@link #exportTo(OutputStream, boolean)} on a book
+     * with the same type of storage, replacing any values for the same keys.
+     * <p/>
+     * The archive is read sequentially and up to {@link Runtime#availableProcessors()} values are
+     * saved in parallel, so memory use doesn't depend on the size of the archive. Instead of an
+     * update for each key, a single {@link ChangeEvent.Imported} is published once all values are
+     * saved, and new observers from
+     * {@link #observeWithInitial(String, Class, BackpressureStrategy)} start from the imported
+     * values.
+     *
+     * @param input stream to read from, not closed
+     * @return completes once every value is saved, or fails with
+     *         {@link IllegalArgumentException} if the archive comes from another type of storage,
+     *         or with {@link java.io.IOException} if it's corrupt
+     */
+    public Completable importFrom(final InputStream input) {
+        return flush().andThen(Completable.defer(new Callable<Completable>() {
+            @Override
+            public Completable call() throws Exception {
+                journal.recoverOnce(RxPaperBook.this);
+                final BookArchive.Reader reader = new BookArchive.Reader(input, book);
+                final AtomicInteger imported = new AtomicInteger();
+                return Flowable.generate(new Consumer<Emitter<Pair<String, byte[]>>>() {
+                    @Override
+                    public void accept(Emitter<Pair<String, byte[]>> emitter) throws Exception {
+                        final Pair<String, byte[]> entry = reader.next();
+                        if (null == entry) {
+                            emitter.onComplete();
+                        } else {
+                            emitter.onNext(entry);
+                        }
+                    }
+                }).flatMapCompletable(new Function<Pair<String, byte[]>, Completable>() {
+                    @Override
+                    public Completable apply(final Pair<String, byte[]> entry) {
+                        return Completable.fromAction(new Action() {
+                            @Override
+                            public void run() {
+                                try {
+                                    book.writeBytes(entry.first, entry.second);
+                                } finally {
+                                    forget(entry.first);
+                                    updates.invalidate(entry.first);
+                                }
+                                index.add(entry.first);
+                                imported.incrementAndGet();
+                            }
+                        }).subscribeOn(scheduler);
+                    }
+                }, false, Runtime.getRuntime().availableProcessors())
+                        .doOnComplete(new Action() {
+                            @Override
+                            public void run() {
+                                updates.publishImport(imported.get());
+                            }
+                        });
+            }
+        }).subscribeOn(scheduler));
+    }
+
+    /**
+     * Saves every value of an archive file, as {@link #importFrom(InputStream)} does.
+     *
+     * @param file archive file to read from
+     */
+    public Completable importFrom(final File file) {
+        return Completable.using(new Callable<InputStream>() {
+            @Override
+            public InputStream call() throws Exception {
+                return new FileInputStream(file);
+            }
+        }, new Function<InputStream, Completable>() {
+            @Override
+            public Completable apply(InputStream input) {
+                return importFrom(input);
+            }
+        }, new Consumer<InputStream>() {
+            @Override
+            public void accept(InputStream input) throws Exception {
+                input.close();
+            }
+        });
+    }
+
+    /**
+     * Starts a group of writes and deletes that are saved all-or-nothing.
+     * <p/>
+     * A transaction left half applied when the process died is finished on the first access to the
+     * book in the next one, through any instance, so {@link #recover()} doesn't need to be called.
+     *
+     * @return new Transaction on this book
+     * @see Transaction
+     */
+    public Transaction transaction() {
+        return new Transaction(this);
+    }
+
+    /**
+     * Finishes applying the last transaction committed on this book if the process died while
+     * applying it.
+     * <p/>
+     * Recovery already happens on the first access to the book in the process, through any
+     * instance, and before every commit. Calling it on startup moves that cost ahead of the first
+     * access.
+     *
+     * @return this Book instance
+     */
+    public Completable recover() {
+        return Completable.fromAction(new Action() {
+            @Override
+            public void run() {
+                journal.recover(RxPaperBook.this);
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Returns a writer that collapses rapid writes to the same key into a single one, timing its
+     * windows on {@link Schedulers#computation()}.
+     *
+     * @param window time without new values for a key after which it's saved
+     * @param maxDelay maximum time a value can be kept unsaved
+     * @param unit unit of window and maxDelay
+     * @return new CoalescingWriter
+     * @see CoalescingWriter
+     */
+    public CoalescingWriter coalescing(long window, long maxDelay, TimeUnit unit) {
+        return coalescing(window, maxDelay, unit, Schedulers.computation());
+    }
+
+    /**
+     * Returns a writer that collapses rapid writes to the same key into a single one.
+     *
+     * @param window time without new values for a key after which it's saved
+     * @param maxDelay maximum time a value can be kept unsaved
+     * @param unit unit of window and maxDelay
+     * @param timerScheduler scheduler where windows are timed
+     * @return new CoalescingWriter
+     * @see CoalescingWriter
+     */
+    public CoalescingWriter coalescing(long window, long maxDelay, TimeUnit unit,
+            Scheduler timerScheduler) {
+        return new CoalescingWriter(this, window, maxDelay, unit, timerScheduler);
+    }
+
+    /**
+     * Saves all the given values in {@link Book} storage as a single operation, writing up to
+     * {@link Runtime#availableProcessors()} keys in parallel.
+     *
+     * @param values objects to save by key, values can't be null
+     * @return this Book instance
+     * @see #writeAll(Map, int)
+     */
+    public <T> Completable writeAll(final Map<String, T> values) {
+        return writeAll(values, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Saves all the given values in {@link Book} storage as a single operation.
+     * <p/>
+     * The batch is split in at most parallelism groups, each run on a single worker of the
+     * scheduler, or in one group per lane if this instance is striped. Updates for the written
+     * keys are published once the batch terminates, including the keys written before a failure
+     * or disposal. Observers of each key are notified of its value, while
+     * {@link #changes(BackpressureStrategy)} gets a single {@link ChangeEvent.WrittenAll} with
+     * every key written.
+     *
+     * @param values objects to save by key, values can't be null
+     * @param parallelism maximum number of keys written concurrently
+     * @return this Book instance
+     */
+    public <T> Completable writeAll(final Map<String, T> values, final int parallelism) {
+        return Completable.defer(new Callable<Completable>() {
+            @Override
+            public Completable call() {
+                if (null != writeBehind) {
+                    final List<Completable> buffered = new ArrayList<>(values.size());
+                    for (Map.Entry<String, T> entry : values.entrySet()) {
+                        buffered.add(writeBehind.put(RxPaperBook.this, entry.getKey(),
+                                entry.getValue()));
+                    }
+                    return Completable.concat(buffered);
+                }
+                if (null != groupCommit) {
+                    final List<Completable> grouped = new ArrayList<>(values.size());
+                    for (Map.Entry<String, T> entry : values.entrySet()) {
+                        grouped.add(groupCommit.write(RxPaperBook.this, entry.getKey(),
+                                entry.getValue()));
+                    }
+                    return Completable.merge(grouped);
+                }
+                return saveAll(values, parallelism);
+            }
+        });
+    }
+
+    /**
+     * Saves values right away, as {@link #writeAll(Map, int)} does without buffering or grouping.
+     */
+    <T> Completable saveAll(final Map<String, T> values, final int parallelism) {
+        return Completable.defer(new Callable<Completable>() {
+            @Override
+            public Completable call() {
+                final long subscribed = System.nanoTime();
+                final Queue<Pair<String, ?>> written = new ConcurrentLinkedQueue<>();
+                final Consumer<Map.Entry<String, T>> writeEntry = new Consumer<Map.Entry<String, T>>() {
+                    @Override
+                    public void accept(final Map.Entry<String, T> entry) throws Exception {
+                        measure(Operation.WRITE, entry.getKey(), subscribed, new Callable<Object>() {
+                            @Override
+                            public Object call() {
+                                writeInternal(entry.getKey(), entry.getValue());
+                                return entry;
+                            }
+                        });
+                        written.add(Pair.create(entry.getKey(), entry.getValue()));
+                    }
+                };
+                final Flowable<Map.Entry<String, T>> entries = Flowable
+                        .fromIterable(new ArrayList<>(values.entrySet()));
+                final Completable writeEntries;
+                if (null == lanes) {
+                    writeEntries = entries.parallel(parallelism)
+                            .runOn(scheduler)
+                            .doOnNext(writeEntry)
+                            .sequential()
+                            .ignoreElements();
+                } else {
+                    writeEntries = entries.groupBy(new Function<Map.Entry<String, T>, Integer>() {
+                        @Override
+                        public Integer apply(Map.Entry<String, T> entry) {
+                            return lanes.laneOf(entry.getKey());
+                        }
+                    }).flatMapCompletable(new Function<GroupedFlowable<Integer, Map.Entry<String, T>>, Completable>() {
+                        @Override
+                        public Completable apply(GroupedFlowable<Integer, Map.Entry<String, T>> lane) {
+                            return lane.observeOn(lanes.scheduler(lane.getKey()))
+                                    .doOnNext(writeEntry)
+                                    .ignoreElements();
+                        }
+                    });
+                }
+                return writeEntries
+                        .doOnTerminate(publishAll(written))
+                        .doOnDispose(publishAll(written));
+            }
+        });
+    }
+
+    /**
+     * Instantiates saved object using original object class (e.g. LinkedList). Support limited
+     * backward and forward compatibility: removed fields are ignored, new fields have their default
+     * values.
+     * <p/>
+     * Concurrent reads of the same key share a single read from storage and the same instance.
+     *
+     * @param key object key to read
+     * @param defaultValue value to be returned if key doesn't exist
+     * @return the saved object instance or defaultValue
+     */
+    public <T> Single<T> read(final String key, final T defaultValue) {
+        return measured(Operation.READ, key, new Callable<T>() {
+            @Override
+            public T call() {
+                final T read = readInternal(key);
+                return null == read ? defaultValue : read;
+            }
+        });
+    }
+
+    /**
+     * Instantiates saved object using original object class (e.g. LinkedList). Support limited
+     * backward and forward compatibility: removed fields are ignored, new fields have their default
+     * values.
+     * <p/>
+     * Concurrent reads of the same key share a single read from storage and the same instance.
+     *
+     * @param key object key to read
+     * @return the saved object instance
+     */
+    public <T> Single<T> read(final String key) {
+        return measured(Operation.READ, key, new Callable<T>() {
+            @Override
+            public T call() {
+                final T read = readInternal(key);
+                if (null == read) {
+                    throw new IllegalArgumentException("Key " + key + " not found");
+                }
+                return read;
+            }
+        });
+    }
+
+    /**
+     * Loads the given keys into memory ahead of their first read, loading up to
+     * {@link Runtime#availableProcessors()} keys in parallel, highest priority first.
+     * <p/>
+     * Meant for the keys read during startup. Keys preloaded by several calls are loaded once, at
+     * the highest priority requested while they're still queued. Reads of a preloaded key through
+     * any instance on this book are served from memory, run its load right away if it's still
+     * queued, or wait for it if it's being loaded. Loaded values are kept until they're first read,
+     * their key is written or deleted, or {@link #releasePreloads()} is called, and should be
+     * treated as immutable.
+     *
+     * @param keys object keys to load
+     * @param priority keys with higher priorities are loaded first
+     * @return timing of each key once it's loaded, completing once all are loaded
+     */
+    public Flowable<PreloadTiming> preload(final Collection<String> keys, final int priority) {
+        return Flowable.defer(new Callable<Flowable<PreloadTiming>>() {
+            @Override
+            public Flowable<PreloadTiming> call() {
+                final List<Preloader.Load> loads = preloads.enqueue(keys, priority,
+                        new Function<String, Object>() {
+                            @Override
+                            public Object apply(String key) {
+                                journal.recoverOnce(RxPaperBook.this);
+                                return readTiered(key);
+                            }
+                        });
+                preloads.drain(scheduler);
+                final List<Single<PreloadTiming>> timings = new ArrayList<>(loads.size());
+                for (Preloader.Load load : loads) {
+                    timings.add(load.done);
+                }
+                return Single.mergeDelayError(timings);
+            }
+        });
+    }
+
+    /**
+     * Drops the values loaded by {@link #preload(Collection, int)} that haven't been read yet, on
+     * every instance working on this book. Keys still queued are loaded and dropped as well.
+     *
+     * @return completes once the values are dropped
+     */
+    public Completable releasePreloads() {
+        return Completable.fromAction(new Action() {
+            @Override
+            public void run() {
+                preloads.clear();
+            }
+        });
+    }
+
+    /**
+     * Reads the stored representation of a value without deserializing it, for paths that only
+     * move data around, like uploading or checksumming it.
+     * <p/>
+     * For books on the default storage these are the contents of the file at
+     * {@link #getPath(String)}. Changes buffered by {@link #withWriteBehind(int)} are saved first.
+     *
+     * @param key object key to read
+     * @return the stored bytes of the value
+     * @see #writeBytes(String, byte[])
+     */
+    public Single<byte[]> readBytes(final String key) {
+        return flush().andThen(measured(Operation.READ, key, new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                final byte[] read = book.readBytes(key);
+                if (null == read) {
+                    throw new IllegalArgumentException("Key " + key + " not found");
+                }
+                if (null != metrics) {
+                    metrics.stored(read.length);
+                }
+                return read;
+            }
+        }));
+    }
+
+    /**
+     * Reads all the given keys, reading up to {@link Runtime#availableProcessors()} keys in
+     * parallel. Keys that don't exist are skipped.
+     *
+     * @param keys object keys to read
+     * @return the saved object instances by key, in the order of the keys requested
+     * @see #readAll(Collection, Object, int)
+     */
+    public <T> Single<Map<String, T>> readAll(final Collection<String> keys) {
+        return readAll(keys, null, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads all the given keys as a single operation.
+     * <p/>
+     * The keys are split in at most parallelism groups, each run on a single worker of the
+     * scheduler.
+     *
+     * @param keys object keys to read
+     * @param defaultValue value to be returned for keys that don't exist, or null to skip them
+     * @param parallelism maximum number of keys read concurrently
+     * @return the saved object instances by key, in the order of the keys requested
+     */
+    public <T> Single<Map<String, T>> readAll(final Collection<String> keys, final T defaultValue,
+            int parallelism) {
+        return this.<T>readAllFlowable(keys, defaultValue, parallelism, false)
+                .toMap(new Function<Pair<String, T>, String>() {
+                    @Override
+                    public String apply(Pair<String, T> entry) {
+                        return entry.first;
+                    }
+                }, new Function<Pair<String, T>, T>() {
+                    @Override
+                    public T apply(Pair<String, T> entry) {
+                        return entry.second;
+                    }
+                }).map(new Function<Map<String, T>, Map<String, T>>() {
+                    @Override
+                    public Map<String, T> apply(Map<String, T> read) {
+                        final Map<String, T> ordered = new LinkedHashMap<>(read.size());
+                        for (String key : keys) {
+                            final T value = read.get(key);
+                            if (null != value) {
+                                ordered.put(key, value);
+                            }
+                        }
+                        return ordered;
+                    }
+                });
+    }
+
+    /**
+     * Reads all the given keys, streaming each key with its value as soon as it's read.
+     * <p/>
+     * Unordered reads are split in at most parallelism groups, each run on a single worker of the
+     * scheduler. Ordered reads schedule each key independently with up to parallelism reads in
+     * flight, and buffer the values read ahead of the next key requested.
+     *
+     * @param keys object keys to read, duplicates are read once
+     * @param defaultValue value to be returned for keys that don't exist, or null to skip them
+     * @param parallelism maximum number of keys read concurrently
+     * @param ordered whether values are emitted in the order of the keys requested
+     * @return cold flowable of pairs of key and saved object instance
+     */
+    public <T> Flowable<Pair<String, T>> readAllFlowable(final Collection<String> keys,
+            final T defaultValue, final int parallelism, final boolean ordered) {
+        return Flowable.defer(new Callable<Flowable<Pair<String, T>>>() {
+            @Override
+            public Flowable<Pair<String, T>> call() {
+                return readKeys(Flowable.fromIterable(new LinkedHashSet<>(keys)), defaultValue,
+                        parallelism, Flowable.bufferSize(), ordered);
+            }
+        });
+    }
+
+    /**
+     * Reads all the keys starting with a prefix, in key order, reading up to
+     * {@link Runtime#availableProcessors()} keys in parallel.
+     * <p/>
+     * Keys are taken from the sorted index described in {@link #keysWithPrefix(String)}.
+     *
+     * @param prefix start of the keys read
+     * @return cold flowable of pairs of key and saved object instance
+     */
+    public <T> Flowable<Pair<String, T>> readPrefix(final String prefix) {
+        return this.<T>readKeys(keysWithPrefix(prefix), null,
+                Runtime.getRuntime().availableProcessors(), Flowable.bufferSize(), true);
+    }
+
+    /**
+     * Reads every key in {@link Book} with its value, reading up to
+     * {@link Runtime#availableProcessors()} keys in parallel.
+     *
+     * @return cold flowable of pairs of key and saved object instance
+     * @see #entries(int, int)
+     */
+    public Flowable<Pair<String, Object>> entries() {
+        return entries(Runtime.getRuntime().availableProcessors(), Flowable.bufferSize());
+    }
+
+    /**
+     * Reads every key in {@link Book} with its value, as they're requested.
+     * <p/>
+     * Keys are taken from {@link #keysFlowable()} and read in at most parallelism groups, each
+     * run on a single worker of the scheduler and reading at most prefetch keys ahead of the
+     * downstream demand. Memory use depends on parallelism and prefetch, not on the size of the
+     * book. Values are emitted in no particular order, and keys deleted during the scan are
+     * skipped.
+     *
+     * @param parallelism maximum number of keys read concurrently
+     * @param prefetch maximum number of values read ahead of the demand by each group
+     * @return cold flowable of pairs of key and saved object instance
+     */
+    public Flowable<Pair<String, Object>> entries(int parallelism, int prefetch) {
+        return readKeys(keysFlowable(), null, parallelism, prefetch, false);
+    }
+
+    private <T> Flowable<Pair<String, T>> readKeys(final Flowable<String> distinctKeys,
+            final T defaultValue, final int parallelism, final int prefetch,
+            final boolean ordered) {
+        return Flowable.defer(new Callable<Flowable<Pair<String, T>>>() {
+            @Override
+            public Flowable<Pair<String, T>> call() {
+                final long subscribed = System.nanoTime();
+                final Function<String, Pair<String, T>> readEntry = new Function<String, Pair<String, T>>() {
+                    @Override
+                    public Pair<String, T> apply(final String key) throws Exception {
+                        final T read = measure(Operation.READ, key, subscribed, new Callable<T>() {
+                            @Override
+                            public T call() {
+                                return readInternal(key);
+                            }
+                        });
+                        return Pair.create(key, null == read ? defaultValue : read);
+                    }
+                };
+                final Predicate<Pair<String, T>> found = new Predicate<Pair<String, T>>() {
+                    @Override
+                    public boolean test(Pair<String, T> entry) {
+                        return null != entry.second;
+                    }
+                };
+                if (!ordered && null == lanes) {
+                    return distinctKeys.parallel(parallelism, prefetch)
+                            .runOn(scheduler, prefetch)
+                            .map(readEntry)
+                            .filter(found)
+                            .sequential(prefetch);
+                }
+                final Function<String, Flowable<Pair<String, T>>> readScheduled = new Function<String, Flowable<Pair<String, T>>>() {
+                    @Override
+                    public Flowable<Pair<String, T>> apply(String key) {
+                        return Flowable.just(key).map(readEntry).subscribeOn(schedulerFor(key));
+                    }
+                };
+                return (ordered
+                        ? distinctKeys.concatMapEager(readScheduled, parallelism, parallelism)
+                        : distinctKeys.flatMap(readScheduled, false, parallelism, prefetch))
+                                .filter(found);
+            }
+        });
+    }
+
+    /**
+     * Delete saved object for given key if it is exist.
+     */
+    public Completable delete(final String key) {
+        if (null != writeBehind) {
+            return writeBehind.put(this, key, WriteBehind.DELETED);
+        }
+        final Completable delete = measured(Operation.DELETE, key, new Action() {
+            @Override
+            public void run() {
+                deleteInternal(key);
+                updates.publishDelete(key);
+            }
+        });
+        return null == groupCommit ? delete : groupCommit.flush().andThen(delete);
+    }
+
+    /**
+     * Check if an object with the given key is saved in Book storage.
+     *
+     * @param key object key
+     * @return true if object with given key exists in Book storage, false otherwise
+     * @deprecated As of PaperDB release 2.6, replaced by {@link #contains(String)}}
+     */
+    public Single<Boolean> exists(final String key) {
+        return measured(Operation.CONTAINS, key, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                if (null != cache || null != hotTier || null != writeBehind) {
+                    return containsInternal(key);
+                }
+                return book.contains(key);
+            }
+        });
+    }
+
+    /**
+     * Returns all keys for objects in {@link Book}.
+     *
+     * @return all keys
+     */
+    public Single<List<String>> keys() {
+        return measured(Operation.KEYS, null, new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                if (null == writeBehind) {
+                    return book.getAllKeys();
+                }
+                final Map<String, Object> buffered = writeBehind.snapshot();
+                final LinkedHashSet<String> keys = new LinkedHashSet<>(book.getAllKeys());
+                for (Map.Entry<String, Object> entry : buffered.entrySet()) {
+                    if (WriteBehind.DELETED == entry.getValue()) {
+                        keys.remove(entry.getKey());
+                    } else {
+                        keys.add(entry.getKey());
+                    }
+                }
+                return new ArrayList<>(keys);
+            }
+        });
+    }
+
+    /**
+     * Returns all keys for objects in {@link Book}, one at a time as they're requested.
+     * <p/>
+     * Keys are taken from {@link StorageEngine#keyIterator()} only when requested downstream. With
+     * the default {@link PaperStorage} the book folder is listed once on subscription, and each
+     * file name is turned into a key when requested. Keys are not sorted, and keys written but not
+     * saved yet by {@link #withWriteBehind(int)} come last.
+     *
+     * @return cold flowable of all keys
+     */
+    public Flowable<String> keysFlowable() {
+        final Flowable<String> stored = Flowable.generate(new Callable<Iterator<String>>() {
+            @Override
+            public Iterator<String> call() {
+                journal.recoverOnce(RxPaperBook.this);
+                return book.keyIterator();
+            }
+        }, new BiConsumer<Iterator<String>, Emitter<String>>() {
+            @Override
+            public void accept(Iterator<String> keys, Emitter<String> emitter) {
+                if (keys.hasNext()) {
+                    emitter.onNext(keys.next());
+                } else {
+                    emitter.onComplete();
+                }
+            }
+        });
+        if (null == writeBehind) {
+            return stored.subscribeOn(scheduler);
+        }
+        return Flowable.defer(new Callable<Flowable<String>>() {
+            @Override
+            public Flowable<String> call() {
+                final Map<String, Object> buffered = writeBehind.snapshot();
+                final List<String> written = new ArrayList<>(buffered.size());
+                for (Map.Entry<String, Object> entry : buffered.entrySet()) {
+                    if (WriteBehind.DELETED != entry.getValue()) {
+                        written.add(entry.getKey());
+                    }
+                }
+                return stored.filter(new Predicate<String>() {
+                    @Override
+                    public boolean test(String key) {
+                        return !buffered.containsKey(key);
+                    }
+                }).concatWith(Flowable.fromIterable(written));
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Returns the keys for objects in {@link Book} starting with a prefix, in key order.
+     * <p/>
+     * Keys are looked up in a sorted index of the book, kept in memory and shared by all the
+     * instances working on the same book. The index is built by listing the keys of the book the
+     * first time it's used, and is kept current by writes, deletes and destroys done through RxPaper.
+     *
+     * @param prefix start of the keys returned
+     * @return cold flowable of the keys starting with prefix
+     */
+    public Flowable<String> keysWithPrefix(final String prefix) {
+        return Flowable.defer(new Callable<Flowable<String>>() {
+            @Override
+            public Flowable<String> call() {
+                journal.recoverOnce(RxPaperBook.this);
+                final NavigableSet<String> stored = index.keys(book).tailSet(prefix, true);
+                return Flowable.fromIterable(null == writeBehind
+                        ? stored
+                        : writeBehind.mergeSorted(stored, prefix, null));
+            }
+        }).takeWhile(new Predicate<String>() {
+            @Override
+            public boolean test(String key) {
+                return key.startsWith(prefix);
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Returns the keys for objects in {@link Book} between two keys, in key order.
+     * <p/>
+     * Keys are looked up in the sorted index described in {@link #keysWithPrefix(String)}.
+     *
+     * @param from first key of the range, inclusive
+     * @param to last key of the range, exclusive
+     * @return cold flowable of the keys in the range
+     */
+    public Flowable<String> keysInRange(final String from, final String to) {
+        return Flowable.defer(new Callable<Flowable<String>>() {
+            @Override
+            public Flowable<String> call() {
+                journal.recoverOnce(RxPaperBook.this);
+                final NavigableSet<String> stored = index.keys(book).subSet(from, true, to,
+                        false);
+                return Flowable.fromIterable(null == writeBehind
+                        ? stored
+                        : writeBehind.mergeSorted(stored, from, to));
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Destroys all data saved in {@link Book}.
+     */
+    public Completable destroy() {
+        return flush().andThen(measured(Operation.DESTROY, null, new Action() {
+            @Override
+            public void run() {
+                book.destroy();
+                flights.fenceAll();
+                index.clear();
+                preloads.clear();
+                updates.evictAll();
+                updates.publishDestroy();
+            }
+        }));
+    }
+
+    /**
+     * Naive update subscription for saved objects. Subscription is routed by key and filtered by
+     * type.
+     *
+     * @param key object key
+     * @param backPressureStrategy how the backpressure is handled downstream
+     * @return hot observable
+     */
+    public <T> Flowable<T> observe(final String key, final Class<T> clazz, BackpressureStrategy backPressureStrategy) {
+        return updates.observe(key, backPressureStrategy).ofType(clazz);
+    }
+
+    /**
+     * Update subscription for saved objects starting with the current value of the key, if any.
+     * Subscription is routed by key and filtered by type.
+     * <p/>
+     * The current value is read from the book only if the key isn't being observed already, and
+     * writes done while reading take precedence over the value read.
+     *
+     * @param key object key
+     * @param backPressureStrategy how the backpressure is handled downstream
+     * @return hot observable
+     */
+    public <T> Flowable<T> observeWithInitial(final String key, final Class<T> clazz,
+            BackpressureStrategy backPressureStrategy) {
+        return updates.observeWithInitial(key, new Callable<Object>() {
+            @Override
+            public Object call() {
+                journal.recoverOnce(RxPaperBook.this);
+                return readInternal(key);
+            }
+        }, schedulerFor(key), backPressureStrategy).ofType(clazz);
+    }
+
+    /**
+     * Naive update subscription for saved objects.
+     * <p/>
+     * This method will return all objects for a key casted unsafely, and throw
+     * {@link ClassCastException} if types do not match. For a safely checked and filtered version
+     * use {@link this#observe(String, Class, BackpressureStrategy)}.
+     *
+     * @param key object key
+     * @param backPressureStrategy how the backpressure is handled downstream
+     * @return hot observable
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Flowable<T> observeUnsafe(final String key, BackpressureStrategy backPressureStrategy) {
+        return updates.observe(key, backPressureStrategy)
+                .map(new Function<Object, T>() {
+                    @Override
+                    public T apply(Object value) {
+                        return (T) value;
+                    }
+                });
+    }
+
+    /**
+     * Naive update subscription for saved objects. Subscription is filtered by type.
+     *
+     * @param backPressureStrategy how the backpressure is handled downstream
+     * @return hot observable
+     */
+    public <T> Flowable<T> observeAll(final Class<T> clazz, BackpressureStrategy backPressureStrategy) {
+        return updates.observeAll(backPressureStrategy)
+                .map(new Function<Pair<String, ?>, Object>() {
+                    @Override
+                    public Object apply(Pair<String, ?> stringPair) {
+                        return stringPair.second;
+                    }
+                }).ofType(clazz);
+    }
+
+    /**
+     * Naive update subscription for saved objects.
+     * <p/>
+     * This method will return all objects casted unsafely, and throw
+     * {@link ClassCastException} if types do not match. For a safely checked and filtered version
+     * use {@link this#observeAll(Class, BackpressureStrategy)}.
+     *
+     * @param backPressureStrategy how the backpressure is handled downstream
+     * @return hot observable
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Flowable<T> observeAllUnsafe(BackpressureStrategy backPressureStrategy) {
+        return updates.observeAll(backPressureStrategy)
+                .map(new Function<Pair<String, ?>, T>() {
+                    @Override
+                    public T apply(Pair<String, ?> stringPair) {
+                        return (T) stringPair.second;
+                    }
+                });
+    }
+
+    /**
+     * Subscription to all writes, deletes and destroys done on the book, including those done
+     * through other instances working on the same book.
+     *
+     * @param backPressureStrategy how the backpressure is handled downstream
+     * @return hot observable
+     */
+    public Flowable<ChangeEvent> changes(BackpressureStrategy backPressureStrategy) {
+        return updates.changes(backPressureStrategy);
+    }
+
+    /**
+     * Subscription to all writes, deletes and destroys done on the book after a given sequence
+     * number, starting with those already done.
+     * <p/>
+     * Only the latest changes are kept in memory, and sequence numbers are not kept between
+     * process restarts. If the changes requested are no longer available it fails with
+     * {@link IllegalArgumentException}, and the book has to be read again. Writes already done are
+     * replayed without their value, which can be read from the book.
+     *
+     * @param afterSequence sequence of the last change seen
+     * @param backPressureStrategy how the backpressure is handled downstream
+     * @return hot observable
+     */
+    public Flowable<ChangeEvent> changes(long afterSequence,
+            BackpressureStrategy backPressureStrategy) {
+        return updates.changes(afterSequence, backPressureStrategy);
+    }
+
+    /**
+     * Checks whether the current book contains the key given
+     *
+     * @param key the key to look up
+     * @return true is the book contains a value for the given key
+     */
+    public Single<Boolean> contains(final String key) {
+        return measured(Operation.CONTAINS, key, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return containsInternal(key);
+            }
+        });
+    }
+
+    /**
+     * Returns the path of the current book
+     *
+     * @return the path to the book
+     */
+    public Single<String> getPath() {
+        return Single.fromCallable(new Callable<String>() {
+            @Override
+            public String call() {
+                return book.getPath();
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Returns the path of the data stored at the key passed as a parameter.
+     * The returned path does not exist if the method has been called prior
+     * saving data for the given key.
+     *
+     * @param key the key to look up
+     * @return the path to the value stored at the key
+     */
+    public Single<String> getPath(final String key) {
+        return Single.fromCallable(new Callable<String>() {
+            @Override
+            public String call() {
+                return book.getPath(key);
+            }
+        }).subscribeOn(schedulerFor(key));
+    }
+
+    Scheduler schedulerFor(String key) {
+        return null == lanes ? scheduler : lanes.schedulerFor(key);
+    }
+
+    /**
+     * Runs an operation on the scheduler for its key, or on the book scheduler if key is null,
+     * recording it if metrics are enabled.
+     */
+    private <T> Single<T> measured(final Operation operation, final String key,
+            final Callable<T> call) {
+        final Scheduler on = null == key ? scheduler : schedulerFor(key);
+        if (null == metrics) {
+            return Single.fromCallable(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    journal.recoverOnce(RxPaperBook.this);
+                    return call.call();
+                }
+            }).subscribeOn(on);
+        }
+        return Single.defer(new Callable<Single<T>>() {
+            @Override
+            public Single<T> call() {
+                final long subscribed = System.nanoTime();
+                return Single.fromCallable(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        return measure(operation, key, subscribed, call);
+                    }
+                }).subscribeOn(on);
+            }
+        });
+    }
+
+    private Completable measured(Operation operation, String key, final Action action) {
+        return measured(operation, key, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                action.run();
+                return true;
+            }
+        }).ignoreElement();
+    }
+
+    private <T> T measure(Operation operation, String key, long subscribed, Callable<T> call)
+            throws Exception {
+        journal.recoverOnce(this);
+        if (null == metrics) {
+            return call.call();
+        }
+        final long started = System.nanoTime();
+        boolean success = false;
+        metrics.start();
+        try {
+            final T result = call.call();
+            success = true;
+            return result;
+        } finally {
+            metrics.record(operation, key, started - subscribed, System.nanoTime() - started,
+                    success);
+        }
+    }
+
+    void writeInternal(String key, Object value) {
+        try {
+            if (null == compression) {
+                book.write(key, value);
+            } else {
+                compression.write(book, key, value);
+            }
+        } catch (RuntimeException e) {
+            forget(key);
+            throw e;
+        } finally {
+            flights.fence(key);
+        }
+        if (null != metrics) {
+            metrics.stored(key);
+        }
+        index.add(key);
+        preloads.invalidate(key);
+        updates.evict(key);
+        if (null != cache) {
+            cache.put(key, value);
+        }
+        if (null != hotTier) {
+            hotTier.put(key, value);
+        }
+    }
+
+    private Flowable<CopyProgress> transfer(final RxPaperBook target,
+            final Predicate<String> keyFilter, final int parallelism, final boolean move) {
+        final Flowable<CopyProgress> transferAll = Flowable.defer(
+                new Callable<Flowable<CopyProgress>>() {
+                    @Override
+                    public Flowable<CopyProgress> call() throws Exception {
+                        journal.recoverOnce(RxPaperBook.this);
+                        target.journal.recoverOnce(target);
+                        final BookTransfer transfer = new BookTransfer(RxPaperBook.this, target,
+                                move);
+                        int totalKeys = 0;
+                        final Iterator<String> iterator = book.keyIterator();
+                        while (iterator.hasNext()) {
+                            if (keyFilter.test(iterator.next())) {
+                                totalKeys++;
+                            }
+                        }
+                        final AtomicInteger transferred = new AtomicInteger();
+                        return Flowable.fromIterable(new Iterable<String>() {
+                            @Override
+                            public Iterator<String> iterator() {
+                                return book.keyIterator();
+                            }
+                        }).filter(keyFilter)
+                                .flatMap(transferKey(transfer, transferred), false, parallelism)
+                                .map(progress(totalKeys))
+                                .doFinally(new Action() {
+                                    @Override
+                                    public void run() {
+                                        if (transferred.get() > 0) {
+                                            target.updates.publishImport(transferred.get());
+                                        }
+                                    }
+                                });
+                    }
+                });
+        return flush().andThen(target.flush()).andThen(transferAll.subscribeOn(scheduler));
+    }
+
+    private Function<String, Flowable<Pair<String, Long>>> transferKey(
+            final BookTransfer transfer, final AtomicInteger transferred) {
+        return new Function<String, Flowable<Pair<String, Long>>>() {
+            @Override
+            public Flowable<Pair<String, Long>> apply(final String key) {
+                return Flowable.fromCallable(new Callable<Pair<String, Long>>() {
+                    @Override
+                    public Pair<String, Long> call() {
+                        final long bytes = transfer.transfer(key);
+                        if (bytes >= 0) {
+                            transferred.incrementAndGet();
+                        }
+                        return Pair.create(key, bytes);
+                    }
+                }).subscribeOn(scheduler);
+            }
+        };
+    }
+
+    private static Function<Pair<String, Long>, CopyProgress> progress(final int totalKeys) {
+        return new Function<Pair<String, Long>, CopyProgress>() {
+            private int completedKeys;
+
+            private long bytes;
+
+            @Override
+            public CopyProgress apply(Pair<String, Long> transferred) {
+                completedKeys++;
+                bytes += Math.max(0, transferred.second);
+                return new CopyProgress(transferred.first, completedKeys, totalKeys, bytes);
+            }
+        };
+    }
+
+    /**
+     * Drops any value for the key held in memory, without knowing the new one.
+     */
+    void forget(String key) {
+        flights.fence(key);
+        preloads.invalidate(key);
+        updates.evict(key);
+    }
+
+    void deleteInternal(String key) {
+        try {
+            book.delete(key);
+        } finally {
+            flights.fence(key);
+        }
+        index.remove(key);
+        preloads.invalidate(key);
+        updates.evict(key);
+        if (null != cache) {
+            cache.put(key, null);
+        }
+    }
+
+    private Action publishAll(final Queue<Pair<String, ?>> written) {
+        return new Action() {
+            @Override
+            public void run() {
+                final List<Pair<String, ?>> batch = new ArrayList<>(written.size());
+                Pair<String, ?> update;
+                while (null != (update = written.poll())) {
+                    batch.add(update);
+                }
+                updates.publishAll(batch);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T readInternal(String key) {
+        if (null != writeBehind) {
+            final Object buffered = writeBehind.get(key);
+            if (WriteBehind.DELETED == buffered) {
+                return null;
+            } else if (null != buffered) {
+                return (T) buffered;
+            }
+        }
+        final Preloader.Load preloaded = preloads.get(key);
+        if (null != preloaded) {
+            final Object loaded = preloaded.await();
+            preloads.release(preloaded);
+            if (Preloader.FAILED != loaded) {
+                return (T) loaded;
+            }
+        }
+        if (null == cache) {
+            return readTiered(key);
+        }
+        final Object cached = cache.get(key);
+        if (ValueCache.ABSENT == cached) {
+            return null;
+        } else if (null != cached) {
+            return (T) cached;
+        }
+        final long generation = cache.generation();
+        final T read = readTiered(key);
+        cache.fill(key, read, generation);
+        return read;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T readTiered(String key) {
+        if (null == hotTier) {
+            return readStored(key);
+        }
+        final Object hot = hotTier.get(key);
+        if (null != hot) {
+            return (T) hot;
+        }
+        final long generation = hotTier.generation();
+        final T read = readStored(key);
+        hotTier.fill(key, read, generation);
+        return read;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T readStored(String key) {
+        final Object stored = flights.read(book, key);
+        if (null != metrics && null != stored) {
+            metrics.stored(key);
+        }
+        return (T) Compression.decode(stored, compression);
+    }
+
+    private boolean containsInternal(String key) {
+        if (null != writeBehind) {
+            final Object buffered = writeBehind.get(key);
+            if (null != buffered) {
+                return WriteBehind.DELETED != buffered;
+            }
+        }
+        if (null == cache) {
+            return containsTiered(key);
+        }
+        final Object cached = cache.get(key);
+        if (null != cached) {
+            return ValueCache.ABSENT != cached;
+        }
+        final long generation = cache.generation();
+        final boolean contains = containsTiered(key);
+        if (!contains) {
+            cache.fill(key, null, generation);
+        }
+        return contains;
+    }
+
+    private boolean containsTiered(String key) {
+        return null != hotTier && hotTier.contains(key) || book.contains(key);
     }
 }
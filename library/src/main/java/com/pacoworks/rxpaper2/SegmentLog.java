@@ -0,0 +1,568 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import io.paperdb.PaperDbException;
+
+/**
+ * Segment files and in-memory index of a folder written by {@link LogStorage}.
+ * <p/>
+ * There is a single log for each folder in the process, shared by every {@link LogStorage} opened
+ * on it, so their appends, compactions and destroys never overwrite each other.
+ * <p/>
+ * Compaction copies the live records to a new segment while appends continue on the segment after
+ * it, and only holds the append lock to start and to swap the index.
+ *
+ * @author pakoito
+ */
+final class SegmentLog {
+    // crc, type, key length, value length
+    static final int HEADER_SIZE = 4 + 1 + 4 + 4;
+
+    static final byte PUT = 1;
+
+    static final byte DELETE = 2;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File folder;
+
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // Held by reads and syncs, and exclusively while closing segments
+    private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+
+    // Held while compacting and destroying, taken before the append lock
+    private final Lock compactLock = new ReentrantLock();
+
+    // Held while appending, rolling, and starting or finishing compactions and destroys
+    private final Object appendLock = new Object();
+
+    private final Object syncLock = new Object();
+
+    private volatile boolean opened;
+
+    private Segment active;
+
+    private long totalBytes;
+
+    private long liveBytes;
+
+    SegmentLog(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * @return offset of the value in a record returned by {@link #readRecord(String)}
+     */
+    static int valueOffset(byte[] record) {
+        return HEADER_SIZE + ByteBuffer.wrap(record).getInt(5);
+    }
+
+    boolean contains(String key) {
+        open();
+        return index.containsKey(key);
+    }
+
+    List<String> getAllKeys() {
+        open();
+        return new ArrayList<>(index.keySet());
+    }
+
+    Iterator<String> keyIterator() {
+        open();
+        return Collections.unmodifiableSet(index.keySet()).iterator();
+    }
+
+    void destroy() {
+        open();
+        compactLock.lock();
+        try {
+            synchronized (appendLock) {
+                segmentsLock.writeLock().lock();
+                try {
+                    for (Segment segment : segments.values()) {
+                        segment.close();
+                        deleteFile(segment.file);
+                    }
+                    segments.clear();
+                    index.clear();
+                    totalBytes = 0;
+                    liveBytes = 0;
+                    active = openSegment(0);
+                } finally {
+                    segmentsLock.writeLock().unlock();
+                }
+            }
+        } finally {
+            compactLock.unlock();
+        }
+    }
+
+    /**
+     * Closes every segment. The log can't be used afterwards.
+     */
+    void close() {
+        compactLock.lock();
+        try {
+            synchronized (appendLock) {
+                segmentsLock.writeLock().lock();
+                try {
+                    for (Segment segment : segments.values()) {
+                        segment.close();
+                    }
+                } finally {
+                    segmentsLock.writeLock().unlock();
+                }
+            }
+        } finally {
+            compactLock.unlock();
+        }
+    }
+
+    String getPath(String key) {
+        open();
+        final Location location = index.get(key);
+        synchronized (appendLock) {
+            return (null == location ? active : location.segment).file.getAbsolutePath();
+        }
+    }
+
+    long sizeOf(String key) {
+        open();
+        final Location location = index.get(key);
+        return null == location ? 0 : location.length;
+    }
+
+    long getSize() {
+        open();
+        synchronized (appendLock) {
+            return totalBytes;
+        }
+    }
+
+    void compact() {
+        open();
+        compactLock.lock();
+        try {
+            compactLocked();
+        } finally {
+            compactLock.unlock();
+        }
+    }
+
+    /**
+     * @return the latest record for the key, or null if it doesn't exist
+     */
+    byte[] readRecord(String key) {
+        open();
+        segmentsLock.readLock().lock();
+        try {
+            final Location location = index.get(key);
+            if (null == location) {
+                return null;
+            }
+            final byte[] record = new byte[location.length];
+            try {
+                readFully(location.segment.channel, ByteBuffer.wrap(record), location.position);
+            } catch (IOException e) {
+                throw new PaperDbException("Couldn't read key " + key, e);
+            }
+            if (checksum(record, record.length) != ByteBuffer.wrap(record).getInt(0)) {
+                throw new PaperDbException("Corrupted record for key " + key + " in "
+                        + location.segment.file);
+            }
+            return record;
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a record, rolling the active segment once it's over the maximum segment size.
+     */
+    void append(String key, byte type, byte[] value, LogStorage.Durability durability,
+            long maxSegmentSize) {
+        open();
+        final byte[] keyBytes = key.getBytes(UTF_8);
+        final byte[] record = new byte[HEADER_SIZE + keyBytes.length + value.length];
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.position(4);
+        buffer.put(type).putInt(keyBytes.length).putInt(value.length).put(keyBytes).put(value);
+        buffer.putInt(0, checksum(record, record.length));
+        final Segment segment;
+        final long end;
+        final boolean compact;
+        synchronized (appendLock) {
+            if (active.size >= maxSegmentSize) {
+                roll();
+            }
+            segment = active;
+            final long position = segment.size;
+            try {
+                writeFully(segment.channel, ByteBuffer.wrap(record), position);
+            } catch (IOException e) {
+                throw new PaperDbException("Couldn't write key " + key, e);
+            }
+            segment.size = position + record.length;
+            totalBytes += record.length;
+            final Location previous = PUT == type
+                    ? index.put(key, new Location(segment, position, record.length))
+                    : index.remove(key);
+            if (null != previous) {
+                liveBytes -= previous.length;
+            }
+            if (PUT == type) {
+                liveBytes += record.length;
+            }
+            end = segment.size;
+            compact = needsCompaction(maxSegmentSize);
+        }
+        if (LogStorage.Durability.SYNC == durability) {
+            sync(segment, end);
+        }
+        // A single writer compacts at a time, while the others keep appending
+        if (compact && compactLock.tryLock()) {
+            try {
+                synchronized (appendLock) {
+                    if (!needsCompaction(maxSegmentSize)) {
+                        return;
+                    }
+                }
+                compactLocked();
+            } finally {
+                compactLock.unlock();
+            }
+        }
+    }
+
+    // Called with the append lock held
+    private boolean needsCompaction(long maxSegmentSize) {
+        return totalBytes > maxSegmentSize && totalBytes - liveBytes > liveBytes;
+    }
+
+    /**
+     * Syncs a segment up to a position, unless a sync started later already covered it.
+     * <p/>
+     * Segments are rolled and compacted only after they're synced, and destroyed segments have
+     * nothing left to sync, so segments closed meanwhile are skipped.
+     */
+    private void sync(Segment segment, long end) {
+        segmentsLock.readLock().lock();
+        try {
+            synchronized (syncLock) {
+                if (segment.synced >= end || segment.closed) {
+                    return;
+                }
+                final long target = segment.size;
+                force(segment);
+                segment.synced = target;
+            }
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    // Called with the append lock held
+    private void roll() {
+        force(active);
+        active.synced = active.size;
+        active = openSegment(active.id + 1);
+    }
+
+    /**
+     * Copies the live records to a new segment and deletes the older ones.
+     * <p/>
+     * Called with the compaction lock held. Appends go to a segment after the copy, so records
+     * written while copying take precedence over it, both in the index and when recovering.
+     */
+    private void compactLocked() {
+        final Segment output;
+        final Map<String, Location> live;
+        synchronized (appendLock) {
+            force(active);
+            active.synced = active.size;
+            output = openSegment(active.id + 1);
+            active = openSegment(active.id + 2);
+            live = new HashMap<>(index);
+        }
+        final Map<String, Location> moved = new HashMap<>();
+        try {
+            for (Map.Entry<String, Location> entry : live.entrySet()) {
+                final Location location = entry.getValue();
+                final ByteBuffer record = ByteBuffer.allocate(location.length);
+                readFully(location.segment.channel, record, location.position);
+                record.flip();
+                writeFully(output.channel, record, output.size);
+                moved.put(entry.getKey(), new Location(output, output.size, location.length));
+                output.size += location.length;
+            }
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't compact " + folder, e);
+        }
+        force(output);
+        output.synced = output.size;
+        final List<Segment> old = new ArrayList<>();
+        synchronized (appendLock) {
+            segmentsLock.writeLock().lock();
+            try {
+                for (Segment segment : segments.headMap(output.id).values()) {
+                    old.add(segment);
+                }
+                for (Map.Entry<String, Location> entry : moved.entrySet()) {
+                    // Keys changed while copying keep their newer record
+                    final String key = entry.getKey();
+                    if (index.get(key) == live.get(key)) {
+                        index.put(key, entry.getValue());
+                    }
+                }
+                for (Segment segment : old) {
+                    segments.remove(segment.id);
+                    segment.close();
+                    totalBytes -= segment.size;
+                }
+                totalBytes += output.size;
+            } finally {
+                segmentsLock.writeLock().unlock();
+            }
+        }
+        // Oldest first, so deletes in newer segments outlive the values they deleted
+        for (Segment segment : old) {
+            deleteFile(segment.file);
+        }
+    }
+
+    private void open() {
+        if (opened) {
+            return;
+        }
+        synchronized (appendLock) {
+            if (opened) {
+                return;
+            }
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new PaperDbException("Couldn't create " + folder);
+            }
+            final File[] files = folder.listFiles();
+            final Map<Long, File> found = new HashMap<>();
+            if (null != files) {
+                for (File file : files) {
+                    final String name = file.getName();
+                    if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                        found.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                name.length() - SEGMENT_SUFFIX.length())), file);
+                    }
+                }
+            }
+            final List<Long> ids = new ArrayList<>(found.keySet());
+            Collections.sort(ids);
+            for (Long id : ids) {
+                recover(openSegment(id));
+            }
+            active = segments.isEmpty() ? openSegment(0) : segments.lastEntry().getValue();
+            opened = true;
+        }
+    }
+
+    /**
+     * Replays the records of a segment into the index, truncating it after the last valid one.
+     */
+    private void recover(Segment segment) {
+        long position = 0;
+        try {
+            final long size = segment.channel.size();
+            final DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(segment.file), 64 * 1024));
+            try {
+                while (position + HEADER_SIZE <= size) {
+                    final int crc = input.readInt();
+                    final byte type = input.readByte();
+                    final int keyLength = input.readInt();
+                    final int valueLength = input.readInt();
+                    final long length = (long) HEADER_SIZE + keyLength + valueLength;
+                    if (keyLength < 0 || valueLength < 0 || position + length > size
+                            || (PUT != type && DELETE != type)) {
+                        break;
+                    }
+                    final byte[] record = new byte[(int) length];
+                    ByteBuffer.wrap(record).putInt(crc).put(type).putInt(keyLength)
+                            .putInt(valueLength);
+                    input.readFully(record, HEADER_SIZE, keyLength + valueLength);
+                    if (checksum(record, record.length) != crc) {
+                        break;
+                    }
+                    final String key = new String(record, HEADER_SIZE, keyLength, UTF_8);
+                    final Location previous = PUT == type
+                            ? index.put(key, new Location(segment, position, record.length))
+                            : index.remove(key);
+                    if (null != previous) {
+                        liveBytes -= previous.length;
+                    }
+                    if (PUT == type) {
+                        liveBytes += record.length;
+                    }
+                    position += length;
+                }
+            } catch (EOFException ignored) {
+                // Torn record at the end of the segment
+            } finally {
+                input.close();
+            }
+            if (position < size) {
+                segment.channel.truncate(position);
+            }
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't recover " + segment.file, e);
+        }
+        segment.size = position;
+        segment.synced = position;
+        totalBytes += position;
+    }
+
+    private Segment openSegment(long id) {
+        final File file = new File(folder, String.format("%s%020d%s", SEGMENT_PREFIX, id,
+                SEGMENT_SUFFIX));
+        try {
+            final Segment segment = new Segment(id, file, new RandomAccessFile(file, "rw"));
+            segments.put(id, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't open " + file, e);
+        }
+    }
+
+    private static void force(Segment segment) {
+        try {
+            segment.channel.force(false);
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't sync " + segment.file, e);
+        }
+    }
+
+    private static int checksum(byte[] record, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(record, 4, length - 4);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        final int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position() - start);
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            throw new PaperDbException("Couldn't delete " + file);
+        }
+    }
+
+    private static final class Segment {
+        final long id;
+
+        final File file;
+
+        final RandomAccessFile access;
+
+        final FileChannel channel;
+
+        // Written with the append lock held
+        volatile long size;
+
+        // Written with the sync lock held
+        volatile long synced;
+
+        volatile boolean closed;
+
+        Segment(long id, File file, RandomAccessFile access) {
+            this.id = id;
+            this.file = file;
+            this.access = access;
+            this.channel = access.getChannel();
+        }
+
+        void close() {
+            closed = true;
+            try {
+                access.close();
+            } catch (IOException ignored) {
+                // Nothing left to save
+            }
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+
+        final long position;
+
+        final int length;
+
+        Location(Segment segment, long position, int length) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Storage of serialized values by key behind a {@link RxPaperBook}.
+ * <p/>
+ * Implementations must be safe to call from several threads at once. Calls block on disk and are
+ * always done on the scheduler of the book.
+ *
+ * @author pakoito
+ * @see PaperStorage
+ * @see LogStorage
+ */
+public interface StorageEngine {
+    /**
+     * Saves a value, replacing any value for the same key.
+     *
+     * @param key object key
+     * @param value object to save, can't be null
+     */
+    <T> void write(String key, T value);
+
+    /**
+     * @param key object key
+     * @return the saved object instance, or null if the key doesn't exist
+     */
+    <T> T read(String key);
+
+    /**
+     * @param key object key
+     * @return the stored representation of the value, or null if the key doesn't exist
+     */
+    byte[] readBytes(String key);
+
+    /**
+     * Saves the stored representation of a value, as returned by {@link #readBytes(String)} on an
+     * engine of the same type, replacing any value for the same key.
+     *
+     * @param key object key
+     * @param bytes stored representation of the value
+     */
+    void writeBytes(String key, byte[] bytes);
+
+    /**
+     * Whether the stored representation of a value is the value serialized with Kryo configured
+     * like Paper, so {@link #writeBytes(String, byte[])} can save bytes serialized by the library
+     * without serializing the value again. Engines wrapping another one should return its answer.
+     *
+     * @return true if values are stored as the bytes Kryo serializes them to
+     */
+    boolean storesSerialized();
+
+    /**
+     * Name of the stored representation, recorded in archives exported by
+     * {@link RxPaperBook#exportTo(java.io.OutputStream, boolean)} to check they're imported into a
+     * compatible engine. It must not change between releases, so it can't be derived from class
+     * names that obfuscation may rename.
+     *
+     * @return stable name shared by the engines whose stored representations are interchangeable
+     */
+    String getFormat();
+
+    /**
+     * @param key object key
+     * @return true if a value for the key is saved
+     */
+    boolean contains(String key);
+
+    /**
+     * Deletes the value for a key, if it exists.
+     *
+     * @param key object key
+     */
+    void delete(String key);
+
+    /**
+     * @return all keys with a value saved
+     */
+    List<String> getAllKeys();
+
+    /**
+     * @return iterator over all keys with a value saved, creating them as they're iterated
+     */
+    Iterator<String> keyIterator();
+
+    /**
+     * Deletes all values.
+     */
+    void destroy();
+
+    /**
+     * @return location of the storage, unique between engines
+     */
+    String getPath();
+
+    /**
+     * @param key object key
+     * @return location of the file containing the value for the key
+     */
+    String getPath(String key);
+
+    /**
+     * @param key object key
+     * @return stored size of the value for the key, 0 if the key doesn't exist
+     */
+    long sizeOf(String key);
+
+    /**
+     * @return stored size of all the values, including storage overhead
+     */
+    long getSize();
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+/**
+ * Snapshot of the counters of the hot tier of a {@link RxPaperBook}.
+ *
+ * @author pakoito
+ */
+public final class TierStats {
+    static final TierStats EMPTY = new TierStats(0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * Reads served from memory.
+     */
+    public final long hotHits;
+
+    /**
+     * Reads served from storage.
+     */
+    public final long coldHits;
+
+    /**
+     * Reads of keys present in neither tier.
+     */
+    public final long misses;
+
+    public final long promotions;
+
+    public final long demotions;
+
+    public final int entries;
+
+    public final long bytes;
+
+    public final int maxEntries;
+
+    public final long maxBytes;
+
+    TierStats(long hotHits, long coldHits, long misses, long promotions, long demotions,
+            int entries, long bytes, int maxEntries, long maxBytes) {
+        this.hotHits = hotHits;
+        this.coldHits = coldHits;
+        this.misses = misses;
+        this.promotions = promotions;
+        this.demotions = demotions;
+        this.entries = entries;
+        this.bytes = bytes;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return ratio of reads served from memory, or 0 if there were no reads
+     */
+    public double hotHitRate() {
+        final long requests = hotHits + coldHits + misses;
+        return requests == 0 ? 0 : (double) hotHits / requests;
+    }
+
+    /**
+     * @return ratio of reads that reached storage and found a value, or 0 if none reached it
+     */
+    public double coldHitRate() {
+        final long requests = coldHits + misses;
+        return requests == 0 ? 0 : (double) coldHits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "TierStats{" + "hotHits=" + hotHits + ", coldHits=" + coldHits + ", misses="
+                + misses + ", promotions=" + promotions + ", demotions=" + demotions
+                + ", entries=" + entries + ", bytes=" + bytes + ", maxEntries=" + maxEntries
+                + ", maxBytes=" + maxBytes + '}';
+    }
+}
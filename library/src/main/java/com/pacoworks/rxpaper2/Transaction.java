@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+import io.reactivex.Completable;
+import io.reactivex.functions.Action;
+
+/**
+ * Group of writes and deletes on a {@link RxPaperBook} that are saved all-or-nothing.
+ * <p/>
+ * Changes are staged in memory until {@link #commit()} is subscribed to, then recorded in an
+ * on-disk journal before being applied. Changes buffered by
+ * {@link RxPaperBook#withWriteBehind(int)} are saved before committing. If the process dies while
+ * applying them, the journal is replayed on the first access to the book in the next process.
+ * <p/>
+ * Transactions are atomic, but not isolated: writes done outside of the transaction while it's
+ * being applied can interleave with its changes. Staging is not thread-safe.
+ *
+ * @author pakoito
+ */
+public final class Transaction {
+    private final RxPaperBook book;
+
+    private final LinkedHashMap<String, Object> writes = new LinkedHashMap<>();
+
+    private final LinkedHashSet<String> deletes = new LinkedHashSet<>();
+
+    Transaction(RxPaperBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Stages a value to be saved, replacing any change staged for the same key.
+     *
+     * @param key object key
+     * @param value object to save, can't be null
+     * @return this Transaction instance
+     */
+    public <T> Transaction write(String key, T value) {
+        if (null == value) {
+            throw new IllegalArgumentException("Value for key " + key + " can't be null");
+        }
+        deletes.remove(key);
+        writes.put(key, value);
+        return this;
+    }
+
+    /**
+     * Stages the deletion of a key, replacing any change staged for the same key.
+     *
+     * @param key object key
+     * @return this Transaction instance
+     */
+    public Transaction delete(String key) {
+        writes.remove(key);
+        deletes.add(key);
+        return this;
+    }
+
+    /**
+     * Saves all the changes staged so far. Updates for every key are published once all the
+     * changes are applied.
+     * <p/>
+     * Changes staged after calling this method are not part of the returned commit.
+     *
+     * @return cold completable that commits the changes on every subscription
+     */
+    public Completable commit() {
+        final TransactionJournal.Record record = new TransactionJournal.Record(
+                new LinkedHashMap<>(writes), new ArrayList<>(deletes));
+        return book.flush().andThen(Completable.fromAction(new Action() {
+            @Override
+            public void run() {
+                book.journal.commit(book, record);
+            }
+        })).subscribeOn(book.scheduler);
+    }
+}
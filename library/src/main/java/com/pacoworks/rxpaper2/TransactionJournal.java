@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.paperdb.Book;
+import io.paperdb.Paper;
+import io.paperdb.PaperDbException;
+
+/**
+ * On-disk journal making the transactions of a book atomic, shared by all the
+ * {@link RxPaperBook} instances working on it.
+ * <p/>
+ * A transaction is committed once its record is written to a single key of a sibling book, which
+ * Paper writes atomically. Its changes are applied afterwards and the record is deleted, so a
+ * record found on disk belongs to a committed transaction that may not have been fully applied,
+ * and is replayed. A torn record is discarded, as its transaction never committed. The journal is
+ * recovered the first time the book is accessed, and again before every commit.
+ *
+ * @author pakoito
+ */
+final class TransactionJournal {
+    private static final String KEY = "transaction";
+
+    private final Book journal;
+
+    private volatile boolean recovered;
+
+    TransactionJournal(String path) {
+        final File folder = new File(path);
+        journal = Paper.bookOn(folder.getParent(), folder.getName() + ".journal");
+    }
+
+    synchronized void commit(RxPaperBook target, Record record) {
+        recover(target);
+        journal.write(KEY, record);
+        record.applyTo(target);
+        journal.delete(KEY);
+    }
+
+    /**
+     * Recovers the journal unless it was already recovered in this process, so no access sees a
+     * transaction left half applied by a previous one.
+     */
+    void recoverOnce(RxPaperBook target) {
+        if (!recovered) {
+            recover(target);
+        }
+    }
+
+    synchronized void recover(RxPaperBook target) {
+        final Record pending;
+        try {
+            pending = journal.read(KEY);
+        } catch (PaperDbException e) {
+            journal.delete(KEY);
+            recovered = true;
+            return;
+        }
+        if (null != pending) {
+            pending.applyTo(target);
+            journal.delete(KEY);
+        }
+        recovered = true;
+    }
+
+    /**
+     * Changes staged by a transaction. Writes and deletes never share keys.
+     */
+    static final class Record {
+        final LinkedHashMap<String, Object> writes;
+
+        final ArrayList<String> deletes;
+
+        @SuppressWarnings("unused")
+        Record() {
+            this(new LinkedHashMap<String, Object>(), new ArrayList<String>());
+        }
+
+        Record(LinkedHashMap<String, Object> writes, ArrayList<String> deletes) {
+            this.writes = writes;
+            this.deletes = deletes;
+        }
+
+        void applyTo(RxPaperBook target) {
+            for (Map.Entry<String, Object> write : writes.entrySet()) {
+                target.writeInternal(write.getKey(), write.getValue());
+            }
+            for (String delete : deletes) {
+                target.deleteInternal(delete);
+            }
+            for (Map.Entry<String, Object> write : writes.entrySet()) {
+                target.updates.publish(write.getKey(), write.getValue());
+            }
+            for (String delete : deletes) {
+                target.updates.publishDelete(delete);
+            }
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import android.util.Pair;
+
+import org.reactivestreams.Subscriber;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableOperator;
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Predicate;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+import io.reactivex.subjects.UnicastSubject;
+import io.reactivex.subscribers.SafeSubscriber;
+
+/**
+ * Routes the updates of a {@link RxPaperBook} to their observers.
+ * <p/>
+ * Observers of a single key get their own channel, so publishing a value costs work proportional
+ * to the observers of that key and those of the whole book only. Each channel also keeps the
+ * latest value of its key for as long as it's observed, so new observers can start from it without
+ * reading from disk.
+ * <p/>
+ * Writes, deletes, imports and destroys are also published as sequenced {@link ChangeEvent}s,
+ * keeping the last {@link #HISTORY_SIZE} so observers can resume after the last sequence they have
+ * seen. The history keeps written keys without their values, so it doesn't hold them in memory.
+ * <p/>
+ * Values held in memory by any instance on the book register as {@link Listener}s, so they're
+ * dropped whenever their key changes through any other instance.
+ *
+ * @author pakoito
+ */
+final class UpdateBus {
+    static final int HISTORY_SIZE = 128;
+
+    private static final Object ABSENT = new Object();
+
+    // Latest value of a key changed without publishing it, to be read again from disk
+    private static final Object UNKNOWN = new Object();
+
+    private static final Predicate<Object> PRESENT = new Predicate<Object>() {
+        @Override
+        public boolean test(Object value) {
+            return ABSENT != value && UNKNOWN != value;
+        }
+    };
+
+    private final Subject<Pair<String, ?>> all = PublishSubject.<Pair<String, ?>>create()
+            .toSerialized();
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+
+    private final Subject<ChangeEvent> changes = PublishSubject.create();
+
+    private final ArrayDeque<ChangeEvent> history = new ArrayDeque<>(HISTORY_SIZE);
+
+    private final Object changesLock = new Object();
+
+    private final List<WeakReference<Listener>> listeners = new CopyOnWriteArrayList<>();
+
+    private long sequence;
+
+    /**
+     * Registers memory holding values of the book, for as long as it's referenced elsewhere.
+     */
+    void addListener(Listener listener) {
+        listeners.add(new WeakReference<>(listener));
+    }
+
+    /**
+     * Drops any value for the key held in memory by the instances on the book.
+     */
+    void evict(String key) {
+        for (WeakReference<Listener> reference : listeners) {
+            final Listener listener = reference.get();
+            if (null == listener) {
+                listeners.remove(reference);
+            } else {
+                listener.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drops every value held in memory by the instances on the book.
+     */
+    void evictAll() {
+        for (WeakReference<Listener> reference : listeners) {
+            final Listener listener = reference.get();
+            if (null == listener) {
+                listeners.remove(reference);
+            } else {
+                listener.clear();
+            }
+        }
+    }
+
+    void publish(String key, Object value) {
+        notifyObservers(key, value);
+        synchronized (changesLock) {
+            ++sequence;
+            emit(new ChangeEvent.Written(sequence, key, value),
+                    new ChangeEvent.Written(sequence, key, null));
+        }
+    }
+
+    /**
+     * Publishes values saved as a batch to the observers of each key, and as a single change.
+     */
+    void publishAll(List<Pair<String, ?>> written) {
+        if (written.isEmpty()) {
+            return;
+        }
+        final List<String> keys = new ArrayList<>(written.size());
+        for (Pair<String, ?> update : written) {
+            notifyObservers(update.first, update.second);
+            keys.add(update.first);
+        }
+        synchronized (changesLock) {
+            final ChangeEvent event = new ChangeEvent.WrittenAll(++sequence,
+                    Collections.unmodifiableList(keys));
+            emit(event, event);
+        }
+    }
+
+    /**
+     * Publishes the deletion of a key, marking its latest value as absent.
+     */
+    void publishDelete(String key) {
+        final Channel channel = channels.get(key);
+        if (null != channel) {
+            channel.setLatest(ABSENT);
+        }
+        synchronized (changesLock) {
+            final ChangeEvent event = new ChangeEvent.Deleted(++sequence, key);
+            emit(event, event);
+        }
+    }
+
+    /**
+     * Publishes a value saved without deserializing it as a change without value, leaving the
+     * channels of the key alone.
+     */
+    void publishRaw(String key) {
+        synchronized (changesLock) {
+            final ChangeEvent event = new ChangeEvent.Written(++sequence, key, null);
+            emit(event, event);
+        }
+    }
+
+    /**
+     * Forgets the latest value of a key changed without publishing it, so observers starting
+     * afterwards read it from disk.
+     */
+    void invalidate(String key) {
+        final Channel channel = channels.get(key);
+        if (null != channel) {
+            channel.invalidate();
+        }
+    }
+
+    /**
+     * Publishes values saved in bulk, as a single change.
+     */
+    void publishImport(int keyCount) {
+        synchronized (changesLock) {
+            final ChangeEvent event = new ChangeEvent.Imported(++sequence, keyCount);
+            emit(event, event);
+        }
+    }
+
+    /**
+     * Publishes the destruction of the book, marking the latest value of every key as absent.
+     */
+    void publishDestroy() {
+        for (Channel channel : channels.values()) {
+            channel.setLatest(ABSENT);
+        }
+        synchronized (changesLock) {
+            final ChangeEvent event = new ChangeEvent.Destroyed(++sequence);
+            emit(event, event);
+        }
+    }
+
+    Flowable<Object> observe(final String key, BackpressureStrategy backPressureStrategy) {
+        return Observable.defer(new Callable<ObservableSource<Object>>() {
+            @Override
+            public ObservableSource<Object> call() {
+                final Channel channel = acquire(key);
+                return channel.subject.doFinally(new Action() {
+                    @Override
+                    public void run() {
+                        release(key, channel);
+                    }
+                });
+            }
+        }).toFlowable(backPressureStrategy).lift(UpdateBus.<Object>isolated());
+    }
+
+    /**
+     * Observes the latest value of a key followed by its updates.
+     * <p/>
+     * If the key isn't observed yet its value is loaded on the scheduler, unless a value is
+     * published while loading.
+     *
+     * @param loader reads the current value from disk, returning null if it doesn't exist
+     */
+    Flowable<Object> observeWithInitial(final String key, final Callable<Object> loader,
+            final Scheduler scheduler, BackpressureStrategy backPressureStrategy) {
+        return Observable.defer(new Callable<ObservableSource<Object>>() {
+            @Override
+            public ObservableSource<Object> call() {
+                final Channel channel = acquire(key);
+                return channel.latest.mergeWith(Completable.fromAction(new Action() {
+                    @Override
+                    public void run() throws Exception {
+                        channel.load(loader);
+                    }
+                }).subscribeOn(scheduler)).filter(PRESENT).doFinally(new Action() {
+                    @Override
+                    public void run() {
+                        release(key, channel);
+                    }
+                });
+            }
+        }).toFlowable(backPressureStrategy).lift(UpdateBus.<Object>isolated());
+    }
+
+    Flowable<Pair<String, ?>> observeAll(BackpressureStrategy backPressureStrategy) {
+        return all.toFlowable(backPressureStrategy).lift(UpdateBus.<Pair<String, ?>>isolated());
+    }
+
+    Flowable<ChangeEvent> changes(BackpressureStrategy backPressureStrategy) {
+        return changes.toFlowable(backPressureStrategy).lift(UpdateBus.<ChangeEvent>isolated());
+    }
+
+    /**
+     * Observes the changes published after the given sequence, replaying them from the history.
+     * <p/>
+     * Fails with {@link IllegalArgumentException} if some of those changes are no longer kept.
+     */
+    Flowable<ChangeEvent> changes(final long afterSequence,
+            BackpressureStrategy backPressureStrategy) {
+        return Observable.defer(new Callable<ObservableSource<ChangeEvent>>() {
+            @Override
+            public ObservableSource<ChangeEvent> call() {
+                final CompositeDisposable bridge = new CompositeDisposable();
+                final UnicastSubject<ChangeEvent> relay = UnicastSubject.create(
+                        HISTORY_SIZE, new Runnable() {
+                            @Override
+                            public void run() {
+                                bridge.dispose();
+                            }
+                        });
+                synchronized (changesLock) {
+                    final ChangeEvent oldest = history.peekFirst();
+                    if (afterSequence > sequence || afterSequence < sequence
+                            && (null == oldest || afterSequence < oldest.sequence - 1)) {
+                        return Observable.error(new IllegalArgumentException(
+                                "Changes after sequence " + afterSequence + " are not available"));
+                    }
+                    for (ChangeEvent event : history) {
+                        if (event.sequence > afterSequence) {
+                            relay.onNext(event);
+                        }
+                    }
+                    bridge.add(changes.subscribe(new Consumer<ChangeEvent>() {
+                        @Override
+                        public void accept(ChangeEvent event) {
+                            relay.onNext(event);
+                        }
+                    }, new Consumer<Throwable>() {
+                        @Override
+                        public void accept(Throwable throwable) {
+                            relay.onError(throwable);
+                        }
+                    }));
+                }
+                return relay;
+            }
+        }).toFlowable(backPressureStrategy).lift(UpdateBus.<ChangeEvent>isolated());
+    }
+
+    private void notifyObservers(String key, Object value) {
+        final Channel channel = channels.get(key);
+        if (null != channel) {
+            channel.subject.onNext(value);
+            channel.setLatest(value);
+        }
+        if (all.hasObservers()) {
+            all.onNext(Pair.create(key, value));
+        }
+    }
+
+    /**
+     * @param kept the same change as kept in the history
+     */
+    private void emit(ChangeEvent event, ChangeEvent kept) {
+        if (history.size() == HISTORY_SIZE) {
+            history.removeFirst();
+        }
+        history.addLast(kept);
+        changes.onNext(event);
+    }
+
+    /**
+     * Cancels subscribers throwing while receiving a value, failing them alone, so the subjects
+     * shared by every instance on the book keep serving the others.
+     */
+    private static <T> FlowableOperator<T, T> isolated() {
+        return new FlowableOperator<T, T>() {
+            @Override
+            public Subscriber<? super T> apply(Subscriber<? super T> subscriber) {
+                return new SafeSubscriber<T>(subscriber);
+            }
+        };
+    }
+
+    private Channel acquire(String key) {
+        synchronized (lock) {
+            Channel channel = channels.get(key);
+            if (null == channel) {
+                channel = new Channel();
+                channels.put(key, channel);
+            }
+            channel.observers++;
+            return channel;
+        }
+    }
+
+    private void release(String key, Channel channel) {
+        synchronized (lock) {
+            if (--channel.observers == 0 && channels.get(key) == channel) {
+                channels.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Memory holding values of the book, told when they change through any instance.
+     */
+    interface Listener {
+        void remove(String key);
+
+        void clear();
+    }
+
+    private static final class Channel {
+        final Subject<Object> subject = PublishSubject.create().toSerialized();
+
+        final BehaviorSubject<Object> latest = BehaviorSubject.create();
+
+        int observers;
+
+        // Bumped on every change of the latest value, so loads that raced with one are dropped
+        private long version;
+
+        synchronized void setLatest(Object value) {
+            version++;
+            latest.onNext(value);
+        }
+
+        synchronized void invalidate() {
+            version++;
+            latest.onNext(UNKNOWN);
+        }
+
+        void load(Callable<Object> loader) throws Exception {
+            final long loading;
+            synchronized (this) {
+                if (latest.hasValue() && UNKNOWN != latest.getValue()) {
+                    return;
+                }
+                loading = version;
+            }
+            final Object value = loader.call();
+            synchronized (this) {
+                if (loading == version) {
+                    setLatest(null == value ? ABSENT : value);
+                }
+            }
+        }
+    }
+}
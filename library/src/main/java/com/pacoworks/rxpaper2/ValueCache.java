@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import android.util.LruCache;
+
+/**
+ * Bounded LRU cache of deserialized values for a {@link RxPaperBook}.
+ * <p/>
+ * Keys known not to be present are cached as {@link #ABSENT}. Every mutation bumps a generation
+ * counter so reads that raced with a write can't fill the cache with stale data. Keys changed through
+ * other instances on the book are removed through {@link UpdateBus.Listener}.
+ *
+ * @author pakoito
+ */
+final class ValueCache implements UpdateBus.Listener {
+    static final Object ABSENT = new Object();
+
+    private final LruCache<String, Object> entries;
+
+    private long generation;
+
+    ValueCache(int maxEntries) {
+        entries = new LruCache<>(maxEntries);
+    }
+
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * @return the cached value, {@link #ABSENT} if the key is known to be missing, or null on a
+     *         cache miss
+     */
+    Object get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized void put(String key, Object value) {
+        generation++;
+        entries.put(key, null == value ? ABSENT : value);
+    }
+
+    /**
+     * Stores a value loaded from disk, unless the cache has been mutated since the load started.
+     */
+    synchronized void fill(String key, Object value, long loadGeneration) {
+        if (generation == loadGeneration) {
+            entries.put(key, null == value ? ABSENT : value);
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        generation++;
+        entries.remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        generation++;
+        entries.evictAll();
+    }
+
+    CacheStats stats() {
+        return new CacheStats(entries.hitCount(), entries.missCount(), entries.evictionCount(),
+                entries.size(), entries.maxSize());
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2017 pakoito & 2015 César Ferreira
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit  persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.pacoworks.rxpaper2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import io.paperdb.PaperDbException;
+import io.reactivex.Completable;
+import io.reactivex.CompletableSource;
+import io.reactivex.functions.Action;
+import io.reactivex.subjects.CompletableSubject;
+
+/**
+ * Bounded buffer of writes and deletes on a {@link RxPaperBook} that are saved in the background.
+ * <p/>
+ * Buffered changes are saved in rounds on the scheduler of the book, each one through the view of
+ * the book it was made on, so the features added to that view apply when it's saved. A change stays
+ * visible in the buffer until it's saved, and a key changed again while being saved stays buffered
+ * for the next round. Producers wait for space once the buffer is full.
+ * <p/>
+ * A failure saving a round is reported to the flushes waiting for it, or kept until the next flush
+ * or change if there were none.
+ *
+ * @author pakoito
+ */
+final class WriteBehind {
+    static final Object DELETED = new Object();
+
+    private final RxPaperBook book;
+
+    private final int capacity;
+
+    private final Map<String, Change> buffered = new LinkedHashMap<>();
+
+    private final Queue<Waiting> waiting = new ArrayDeque<>();
+
+    private List<CompletableSubject> flushes = new ArrayList<>();
+
+    private Throwable failure;
+
+    private boolean draining;
+
+    private boolean closed;
+
+    WriteBehind(RxPaperBook book, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive, was " + capacity);
+        }
+        this.book = book;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param view view of the book the change is made on, and saved through
+     * @return completes once the change has been buffered, waiting for space if needed
+     */
+    Completable put(final RxPaperBook view, final String key, final Object value) {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                if (null == value) {
+                    return Completable.error(
+                            new PaperDbException("Paper doesn't support writing null root values"));
+                }
+                final Change change = new Change(view, value);
+                synchronized (WriteBehind.this) {
+                    if (closed) {
+                        return Completable.error(new IllegalStateException("Book is closed"));
+                    }
+                    if (null != failure) {
+                        return Completable.error(takeFailure());
+                    }
+                    if (!buffered.containsKey(key) && buffered.size() >= capacity) {
+                        final Waiting toBuffer = new Waiting(key, change);
+                        waiting.add(toBuffer);
+                        return toBuffer.buffered.doOnDispose(new Action() {
+                            @Override
+                            public void run() {
+                                synchronized (WriteBehind.this) {
+                                    waiting.remove(toBuffer);
+                                }
+                            }
+                        });
+                    }
+                    buffer(key, change);
+                }
+                publish(key, value);
+                return Completable.complete();
+            }
+        });
+    }
+
+    /**
+     * @return the buffered value, {@link #DELETED} if the key is buffered for deletion, or null if
+     *         the key isn't buffered
+     */
+    synchronized Object get(String key) {
+        final Change change = buffered.get(key);
+        return null == change ? null : change.value;
+    }
+
+    /**
+     * @return copy of the buffered values by key, {@link #DELETED} for keys buffered for deletion
+     */
+    synchronized Map<String, Object> snapshot() {
+        final Map<String, Object> values = new LinkedHashMap<>(buffered.size());
+        for (Map.Entry<String, Change> entry : buffered.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().value);
+        }
+        return values;
+    }
+
+    /**
+     * Merges sorted keys in storage with the changes buffered when called, in key order.
+     *
+     * @param stored keys in storage between from and to
+     * @param from first key of the range, inclusive
+     * @param to last key of the range, exclusive, or null for a range without end
+     */
+    Iterable<String> mergeSorted(final Iterable<String> stored, String from, String to) {
+        final TreeMap<String, Object> changes = new TreeMap<>(snapshot());
+        final NavigableMap<String, Object> range = null == to
+                ? changes.tailMap(from, true)
+                : changes.subMap(from, true, to, false);
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new SortedMerge(stored.iterator(), range.entrySet().iterator());
+            }
+        };
+    }
+
+    /**
+     * @return completes once every change buffered before subscribing has been saved, or fails
+     *         with the error of a round that failed since the last flush
+     */
+    Completable flush() {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                synchronized (WriteBehind.this) {
+                    if (null != failure) {
+                        return Completable.error(takeFailure());
+                    }
+                    if (buffered.isEmpty() && !draining) {
+                        return Completable.complete();
+                    }
+                    final CompletableSubject flushed = CompletableSubject.create();
+                    flushes.add(flushed);
+                    return flushed;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return completes once every change has been saved, rejecting new ones
+     */
+    Completable close() {
+        return Completable.defer(new Callable<CompletableSource>() {
+            @Override
+            public CompletableSource call() {
+                synchronized (WriteBehind.this) {
+                    closed = true;
+                }
+                return flush();
+            }
+        });
+    }
+
+    // Called with the lock held
+    private Throwable takeFailure() {
+        final Throwable taken = failure;
+        failure = null;
+        return taken;
+    }
+
+    // Called with the lock held
+    private void buffer(String key, Change change) {
+        buffered.put(key, change);
+        if (!draining) {
+            draining = true;
+            book.scheduler.scheduleDirect(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            final Map<String, Change> round;
+            final List<CompletableSubject> roundFlushes;
+            synchronized (this) {
+                if (buffered.isEmpty()) {
+                    draining = false;
+                    roundFlushes = flushes;
+                    flushes = new ArrayList<>();
+                    round = null;
+                } else {
+                    round = new LinkedHashMap<>(buffered);
+                    roundFlushes = flushes;
+                    flushes = new ArrayList<>();
+                }
+            }
+            if (null == round) {
+                for (CompletableSubject flushed : roundFlushes) {
+                    flushed.onComplete();
+                }
+                return;
+            }
+            Throwable error = null;
+            for (Map.Entry<String, Change> entry : round.entrySet()) {
+                try {
+                    save(entry.getKey(), entry.getValue());
+                } catch (RuntimeException e) {
+                    error = null == error ? e : error;
+                }
+                release(entry.getKey(), entry.getValue());
+            }
+            if (null != error && roundFlushes.isEmpty()) {
+                synchronized (this) {
+                    failure = null == failure ? error : failure;
+                }
+            }
+            for (CompletableSubject flushed : roundFlushes) {
+                if (null == error) {
+                    flushed.onComplete();
+                } else {
+                    flushed.onError(error);
+                }
+            }
+        }
+    }
+
+    private static void save(String key, Change change) {
+        change.view.journal.recoverOnce(change.view);
+        if (DELETED == change.value) {
+            change.view.deleteInternal(key);
+        } else {
+            change.view.writeInternal(key, change.value);
+        }
+    }
+
+    /**
+     * Removes a saved change from the buffer, unless it was changed again, and lets waiting
+     * producers in.
+     */
+    private void release(String key, Change saved) {
+        final List<Waiting> admitted = new ArrayList<>();
+        synchronized (this) {
+            if (buffered.get(key) == saved) {
+                buffered.remove(key);
+            }
+            while (!waiting.isEmpty() && buffered.size() < capacity) {
+                final Waiting next = waiting.poll();
+                buffer(next.key, next.change);
+                admitted.add(next);
+            }
+        }
+        for (Waiting next : admitted) {
+            publish(next.key, next.change.value);
+            next.buffered.onComplete();
+        }
+    }
+
+    private void publish(String key, Object value) {
+        if (DELETED == value) {
+            book.updates.publishDelete(key);
+        } else {
+            book.updates.publish(key, value);
+        }
+    }
+
+    private static final class Change {
+        final RxPaperBook view;
+
+        final Object value;
+
+        Change(RxPaperBook view, Object value) {
+            this.view = view;
+            this.value = value;
+        }
+    }
+
+    private static final class Waiting {
+        final String key;
+
+        final Change change;
+
+        final CompletableSubject buffered = CompletableSubject.create();
+
+        Waiting(String key, Change change) {
+            this.key = key;
+            this.change = change;
+        }
+    }
+
+    /**
+     * Iterates two sorted sequences of keys, where buffered changes take precedence over the keys
+     * in storage.
+     */
+    private static final class SortedMerge implements Iterator<String> {
+        private final Iterator<String> stored;
+
+        private final Iterator<Map.Entry<String, Object>> changes;
+
+        private String nextStored;
+
+        private Map.Entry<String, Object> nextChange;
+
+        private String next;
+
+        SortedMerge(Iterator<String> stored, Iterator<Map.Entry<String, Object>> changes) {
+            this.stored = stored;
+            this.changes = changes;
+            nextStored = stored.hasNext() ? stored.next() : null;
+            nextChange = changes.hasNext() ? changes.next() : null;
+            next = advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return null != next;
+        }
+
+        @Override
+        public String next() {
+            if (null == next) {
+                throw new NoSuchElementException();
+            }
+            final String current = next;
+            next = advance();
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private String advance() {
+            while (null != nextStored || null != nextChange) {
+                final int order = null == nextChange ? -1
+                        : null == nextStored ? 1 : nextStored.compareTo(nextChange.getKey());
+                if (order < 0) {
+                    final String key = nextStored;
+                    nextStored = stored.hasNext() ? stored.next() : null;
+                    return key;
+                }
+                final Map.Entry<String, Object> change = nextChange;
+                nextChange = changes.hasNext() ? changes.next() : null;
+                if (order == 0) {
+                    nextStored = stored.hasNext() ? stored.next() : null;
+                }
+                if (DELETED != change.getValue()) {
+                    return change.getKey();
+                }
+            }
+            return null;
+        }
+    }
+}
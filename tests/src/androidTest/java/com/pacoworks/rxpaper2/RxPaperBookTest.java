@@ -22,6 +22,8 @@
 
 package com.pacoworks.rxpaper2;
 
+import android.util.Pair;
+
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.rule.ActivityTestRule;
 
@@ -37,14 +39,34 @@ import org.junit.runner.RunWith;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import io.paperdb.Paper;
+import io.paperdb.PaperDbException;
 import io.reactivex.BackpressureStrategy;
 import io.reactivex.Completable;
 import io.reactivex.SingleObserver;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Predicate;
 import io.reactivex.observers.TestObserver;
 import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
 import io.reactivex.subscribers.TestSubscriber;
 
 @RunWith(AndroidJUnit4.class)
@@ -63,6 +85,8 @@ public class RxPaperBookTest {
         RxPaperBook.with("DELETE").destroy().subscribe();
         RxPaperBook.with("EXISTS").destroy().subscribe();
         RxPaperBook.with("KEYS").destroy().subscribe();
+        RxPaperBook.with("KEYS_PREFIX").destroy().subscribe();
+        RxPaperBook.with("KEY_INDEX").destroy().subscribe();
         RxPaperBook.with("DESTROY").destroy().subscribe();
         RxPaperBook.with("UPDATES_UNCH").destroy().subscribe();
         RxPaperBook.with("UPDATES_CH").destroy().subscribe();
@@ -70,6 +94,32 @@ public class RxPaperBookTest {
         RxPaperBook.with("UPDATES_ALL_CH").destroy().subscribe();
         RxPaperBook.with("CONTAINS").destroy().subscribe();
         RxPaperBook.with("PATH").destroy().subscribe();
+        RxPaperBook.with("RAW").destroy().subscribe();
+        RxPaperBook.with("RAW_COPY").destroy().subscribe();
+        RxPaperBook.with("COPY_SOURCE").destroy().subscribe();
+        RxPaperBook.with("COPY_TARGET").destroy().subscribe();
+        RxPaperBook.with("EXPORT").destroy().subscribe();
+        RxPaperBook.with("IMPORT").destroy().subscribe();
+        RxPaperBook.with("CACHE").destroy().subscribe();
+        RxPaperBook.with("HOT_TIER").destroy().subscribe();
+        RxPaperBook.with("COMPRESSION").destroy().subscribe();
+        RxPaperBook.with("PRELOAD").destroy().subscribe();
+        RxPaperBook.with("SINGLE_FLIGHT").destroy().subscribe();
+        RxPaperBook.with("WRITE_ALL").destroy().subscribe();
+        RxPaperBook.with("READ_ALL").destroy().subscribe();
+        RxPaperBook.with("ENTRIES").destroy().subscribe();
+        RxPaperBook.with("UPDATES_ROUTING").destroy().subscribe();
+        RxPaperBook.with("UPDATES_SHARED").destroy().subscribe();
+        RxPaperBook.with("UPDATES_INITIAL").destroy().subscribe();
+        RxPaperBook.with("CHANGES").destroy().subscribe();
+        RxPaperBook.with("COALESCING").destroy().subscribe();
+        RxPaperBook.with("STRIPES").destroy().subscribe();
+        RxPaperBook.with("GROUP_COMMIT").destroy().subscribe();
+        RxPaperBook.with("WRITE_BEHIND").destroy().subscribe();
+        RxPaperBook.with("TRANSACTION").destroy().subscribe();
+        RxPaperBook.with("TRANSACTION_RECOVERY").destroy().subscribe();
+        RxPaperBook.with("METRICS").destroy().subscribe();
+        new LogStorage(logStoragePath()).destroy();
     }
 
     @Test
@@ -85,6 +135,219 @@ public class RxPaperBookTest {
         Assert.assertTrue(book.book.contains(key));
     }
 
+    @Test
+    public void testWriteAll() throws Exception {
+        RxPaperBook book = RxPaperBook.with("WRITE_ALL", Schedulers.trampoline());
+        final Map<String, ComplexObject> values = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            values.put("hello" + i, ComplexObject.random());
+        }
+        final TestSubscriber<ComplexObject> updatesSubscriber = TestSubscriber.create();
+        book.observeAll(ComplexObject.class, BackpressureStrategy.BUFFER).subscribe(updatesSubscriber);
+        final TestSubscriber<ChangeEvent> changesSubscriber = book
+                .changes(BackpressureStrategy.BUFFER).test();
+        final TestObserver<Void> testSubscriber = book.writeAll(values, 4).test();
+        testSubscriber.awaitTerminalEvent();
+        testSubscriber.assertComplete();
+        testSubscriber.assertNoErrors();
+        updatesSubscriber.assertValueCount(values.size());
+        // a single change for the batch
+        changesSubscriber.assertValueCount(1);
+        final ChangeEvent.WrittenAll written = (ChangeEvent.WrittenAll) changesSubscriber.values()
+                .get(0);
+        Assert.assertEquals(values.keySet(), new HashSet<>(written.keys));
+        for (Map.Entry<String, ComplexObject> entry : values.entrySet()) {
+            Assert.assertEquals(entry.getValue(), book.book.read(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testCoalescingWrite() throws Exception {
+        RxPaperBook book = RxPaperBook.with("COALESCING", Schedulers.trampoline());
+        final TestScheduler timerScheduler = new TestScheduler();
+        final CoalescingWriter writer = book.coalescing(100, 300, TimeUnit.MILLISECONDS, timerScheduler);
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        final ComplexObject newValue = ComplexObject.random();
+        final TestSubscriber<ComplexObject> updatesSubscriber = TestSubscriber.create();
+        book.observe(key, ComplexObject.class, BackpressureStrategy.MISSING).subscribe(updatesSubscriber);
+        final TestObserver<Void> testSubscriber = writer.write(key, value).test();
+        timerScheduler.advanceTimeBy(50, TimeUnit.MILLISECONDS);
+        final TestObserver<Void> newSubscriber = writer.write(key, newValue).test();
+        updatesSubscriber.assertValues(value, newValue);
+        Assert.assertFalse(book.book.contains(key));
+        timerScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        testSubscriber.assertComplete();
+        newSubscriber.assertComplete();
+        Assert.assertEquals(newValue, book.book.read(key));
+        // flush
+        writer.write(key, value).subscribe();
+        Assert.assertEquals(1, writer.pendingCount());
+        writer.flush().test().assertComplete();
+        Assert.assertEquals(0, writer.pendingCount());
+        Assert.assertEquals(value, book.book.read(key));
+    }
+
+    @Test
+    public void testGroupCommitWrite() throws Exception {
+        final TestScheduler timer = new TestScheduler();
+        RxPaperBook book = RxPaperBook.with("GROUP_COMMIT", Schedulers.trampoline())
+                .withGroupCommit(10, TimeUnit.MILLISECONDS, 2, timer);
+        final ComplexObject first = ComplexObject.random();
+        final ComplexObject last = ComplexObject.random();
+        final TestObserver<Void> firstSubscriber = book.write("hello", first).test();
+        final TestObserver<Void> lastSubscriber = book.write("hello", last).test();
+        final TestObserver<Void> otherSubscriber = book.write("you", first).test();
+        firstSubscriber.assertNotComplete();
+        Assert.assertFalse(book.book.contains("hello"));
+        timer.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+        firstSubscriber.assertComplete();
+        lastSubscriber.assertComplete();
+        otherSubscriber.assertComplete();
+        Assert.assertEquals(last, book.book.read("hello"));
+        Assert.assertEquals(first, book.book.read("you"));
+        // windows closing as soon as they're scheduled
+        RxPaperBook immediate = RxPaperBook.with("GROUP_COMMIT", Schedulers.trampoline())
+                .withGroupCommit(0, TimeUnit.MILLISECONDS, 2, Schedulers.trampoline());
+        immediate.write("hello", first).test().assertComplete();
+        Assert.assertEquals(first, immediate.book.read("hello"));
+        // null values fail alone
+        final TestObserver<Void> nullSubscriber = book.write("null", null).test();
+        final TestObserver<Void> validSubscriber = book.write("valid", first).test();
+        nullSubscriber.assertError(PaperDbException.class);
+        timer.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+        validSubscriber.assertComplete();
+        // views share the groups, and deletes save them first
+        final RxPaperBook cached = book.withCache(10);
+        book.write("shared", first).test();
+        final TestObserver<Void> cachedSubscriber = cached.write("shared", last).test();
+        cached.delete("valid").test().assertComplete();
+        cachedSubscriber.assertComplete();
+        Assert.assertEquals(last, book.book.read("shared"));
+        Assert.assertFalse(book.book.contains("valid"));
+        book.write("deleted", first).test();
+        book.delete("deleted").test().assertComplete();
+        timer.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+        Assert.assertFalse(book.book.contains("deleted"));
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        final TestScheduler scheduler = new TestScheduler();
+        RxPaperBook book = RxPaperBook.with("WRITE_BEHIND", scheduler).withWriteBehind(1);
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        final TestObserver<Void> writeSubscriber = book.write(key, value).test();
+        writeSubscriber.assertComplete();
+        Assert.assertFalse(book.book.contains(key));
+        // backpressure
+        final TestObserver<Void> fullSubscriber = book.write("you", value).test();
+        fullSubscriber.assertNotComplete();
+        book.write("disposed", value).test().dispose();
+        book.write("null", null).test().assertError(PaperDbException.class);
+        // read your writes
+        final TestObserver<ComplexObject> readSubscriber = book.<ComplexObject>read(key).test();
+        final TestObserver<Void> flushSubscriber = book.flush().test();
+        flushSubscriber.assertNotComplete();
+        scheduler.triggerActions();
+        readSubscriber.assertValues(value);
+        fullSubscriber.assertComplete();
+        flushSubscriber.assertComplete();
+        Assert.assertTrue(book.book.contains(key));
+        Assert.assertTrue(book.book.contains("you"));
+        Assert.assertFalse(book.book.contains("disposed"));
+        // saved through the view they were made on, and listed before being saved
+        final RxPaperBook cached = book.withCache(10);
+        final ComplexObject cachedValue = ComplexObject.random();
+        cached.write("you-too", cachedValue).test().assertComplete();
+        final TestSubscriber<String> prefixSubscriber = cached.keysWithPrefix("you").test();
+        scheduler.triggerActions();
+        prefixSubscriber.assertValues("you", "you-too");
+        Assert.assertEquals(cachedValue, book.book.read("you-too"));
+        Assert.assertEquals(1, cached.cacheStats().size);
+        // close
+        book.delete(key).test().assertComplete();
+        final TestObserver<Void> closeSubscriber = book.close().test();
+        scheduler.triggerActions();
+        closeSubscriber.assertComplete();
+        Assert.assertFalse(book.book.contains(key));
+        book.write(key, value).test().assertError(IllegalStateException.class);
+        // failures without a flush waiting are kept for the next one
+        final CountingStorage storage = new CountingStorage(
+                new PaperStorage(Paper.book("WRITE_BEHIND")));
+        final RxPaperBook failing = RxPaperBook.withStorage(storage, scheduler).withWriteBehind(1);
+        storage.writeFailure = new PaperDbException("Disk full");
+        failing.write(key, value).test().assertComplete();
+        scheduler.triggerActions();
+        storage.writeFailure = null;
+        failing.flush().test().assertError(PaperDbException.class);
+        failing.flush().test().assertComplete();
+    }
+
+    @Test
+    public void testStripedWrite() throws Exception {
+        RxPaperBook book = RxPaperBook.with("STRIPES", Schedulers.io()).withStripes(4);
+        Assert.assertEquals(4, book.stripeDepths().length);
+        final int keys = 8;
+        final int writes = 10;
+        final List<TestObserver<Void>> testSubscribers = new ArrayList<>();
+        for (int i = 0; i < keys * writes; i++) {
+            testSubscribers.add(book.write("hello" + (i % keys), i).test());
+        }
+        for (TestObserver<Void> testSubscriber : testSubscribers) {
+            testSubscriber.awaitTerminalEvent();
+            testSubscriber.assertComplete();
+        }
+        for (int i = 0; i < keys; i++) {
+            final TestObserver<Integer> readSubscriber = book.<Integer>read("hello" + i).test();
+            readSubscriber.awaitTerminalEvent();
+            readSubscriber.assertValues(keys * (writes - 1) + i);
+        }
+        for (int depth : book.stripeDepths()) {
+            Assert.assertEquals(0, depth);
+        }
+    }
+
+    @Test
+    public void testTransaction() throws Exception {
+        RxPaperBook book = RxPaperBook.with("TRANSACTION", Schedulers.trampoline());
+        final ComplexObject value = ComplexObject.random();
+        book.write("unread", value).subscribe();
+        final Transaction transaction = book.transaction()
+                .write("conversation", value)
+                .write("index", value)
+                .delete("unread");
+        Assert.assertFalse(book.book.contains("conversation"));
+        final TestObserver<Void> commitSubscriber = transaction.commit().test();
+        commitSubscriber.awaitTerminalEvent();
+        commitSubscriber.assertComplete();
+        commitSubscriber.assertNoErrors();
+        Assert.assertTrue(book.book.contains("conversation"));
+        Assert.assertTrue(book.book.contains("index"));
+        Assert.assertFalse(book.book.contains("unread"));
+        final TestObserver<Void> recoverSubscriber = book.recover().test();
+        recoverSubscriber.awaitTerminalEvent();
+        recoverSubscriber.assertComplete();
+        Assert.assertEquals(2, book.book.getAllKeys().size());
+    }
+
+    @Test
+    public void testTransactionRecovery() throws Exception {
+        RxPaperBook book = RxPaperBook.with("TRANSACTION_RECOVERY", Schedulers.trampoline());
+        book.recover().test().assertComplete();
+        final ComplexObject value = ComplexObject.random();
+        // committed by a process that died before applying it
+        final File folder = new File(book.book.getPath());
+        final LinkedHashMap<String, Object> writes = new LinkedHashMap<>();
+        writes.put("conversation", value);
+        Paper.bookOn(folder.getParent(), folder.getName() + ".journal").write("transaction",
+                new TransactionJournal.Record(writes, new ArrayList<String>()));
+        RxPaperBook.forgetJournal(book.book.getPath());
+        // applied on the first access after restarting, without calling recover()
+        RxPaperBook.with("TRANSACTION_RECOVERY", Schedulers.trampoline())
+                .<ComplexObject>read("conversation").test().assertValues(value);
+    }
+
     @Test
     public void testReadError() throws Exception {
     }
@@ -135,6 +398,103 @@ public class RxPaperBookTest {
         immutableReadSubscriber.assertValueCount(1);
     }
 
+    @Test
+    public void testReadAll() throws Exception {
+        RxPaperBook book = RxPaperBook.with("READ_ALL", Schedulers.trampoline());
+        final String key = "hello";
+        final String key2 = "you";
+        final String noKey = ":(";
+        final ComplexObject value = ComplexObject.random();
+        final ComplexObject value2 = ComplexObject.random();
+        book.write(key, value).subscribe();
+        book.write(key2, value2).subscribe();
+        final List<String> keys = Arrays.asList(key2, noKey, key);
+        final TestObserver<Map<String, ComplexObject>> testSubscriber = book.<ComplexObject>readAll(keys).test();
+        testSubscriber.awaitTerminalEvent();
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertValueCount(1);
+        final Map<String, ComplexObject> read = testSubscriber.values().get(0);
+        Assert.assertEquals(Arrays.asList(key2, key), new ArrayList<>(read.keySet()));
+        Assert.assertEquals(value, read.get(key));
+        Assert.assertEquals(value2, read.get(key2));
+        // ordered with default
+        final ComplexObject defaultValue = ComplexObject.random();
+        final TestSubscriber<Pair<String, ComplexObject>> orderedSubscriber = book
+                .readAllFlowable(keys, defaultValue, 2, true).test();
+        orderedSubscriber.awaitTerminalEvent();
+        orderedSubscriber.assertNoErrors();
+        orderedSubscriber.assertValueCount(3);
+        Assert.assertEquals(key2, orderedSubscriber.values().get(0).first);
+        Assert.assertEquals(defaultValue, orderedSubscriber.values().get(1).second);
+        Assert.assertEquals(value, orderedSubscriber.values().get(2).second);
+    }
+
+    @Test
+    public void testEntries() throws Exception {
+        RxPaperBook book = RxPaperBook.with("ENTRIES", Schedulers.trampoline());
+        final Map<String, ComplexObject> values = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            values.put("hello" + i, ComplexObject.random());
+        }
+        book.writeAll(values).subscribe();
+        final TestSubscriber<Pair<String, Object>> allSubscriber = book.entries(2, 4).test();
+        allSubscriber.awaitTerminalEvent();
+        allSubscriber.assertNoErrors();
+        allSubscriber.assertValueCount(values.size());
+        for (Pair<String, Object> entry : allSubscriber.values()) {
+            Assert.assertEquals(values.get(entry.first), entry.second);
+        }
+        // backpressure
+        final TestSubscriber<Pair<String, Object>> requestedSubscriber = book.entries(2, 4)
+                .test(5);
+        requestedSubscriber.assertValueCount(5);
+        requestedSubscriber.assertNotComplete();
+        requestedSubscriber.cancel();
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final CountingStorage storage = new CountingStorage(
+                new PaperStorage(Paper.book("SINGLE_FLIGHT")));
+        RxPaperBook book = RxPaperBook.withStorage(storage, Schedulers.io());
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        RxPaperBook.withStorage(storage, Schedulers.trampoline()).write(key, value).subscribe();
+        storage.entered = new CountDownLatch(1);
+        storage.gate = new CountDownLatch(1);
+        final List<TestObserver<ComplexObject>> readers = new ArrayList<>();
+        readers.add(book.<ComplexObject>read(key).test());
+        Assert.assertTrue(storage.entered.await(5, TimeUnit.SECONDS));
+        // the read from storage finishes once every other reader has joined it
+        book.flights.joined = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            readers.add(book.<ComplexObject>read(key).test());
+        }
+        Assert.assertTrue(book.flights.joined.await(5, TimeUnit.SECONDS));
+        storage.gate.countDown();
+        for (TestObserver<ComplexObject> reader : readers) {
+            reader.awaitTerminalEvent();
+            reader.assertValues(value);
+            Assert.assertSame(readers.get(0).values().get(0), reader.values().get(0));
+        }
+        Assert.assertEquals(1, storage.reads.get());
+        // reads after a write never share a read started before it
+        final List<TestObserver<ComplexObject>> stale = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            stale.add(book.<ComplexObject>read(key).test());
+        }
+        final ComplexObject updated = ComplexObject.random();
+        book.write(key, updated).blockingAwait();
+        book.<ComplexObject>read(key).test().awaitDone(5, TimeUnit.SECONDS).assertValues(updated);
+        for (TestObserver<ComplexObject> reader : stale) {
+            reader.awaitTerminalEvent();
+            reader.assertNoErrors();
+        }
+        book.delete(key).blockingAwait();
+        book.read(key).test().awaitDone(5, TimeUnit.SECONDS)
+                .assertError(IllegalArgumentException.class);
+    }
+
     @Test
     public void testReadWithDefault() throws Exception {
         RxPaperBook book = RxPaperBook.with("READ_WITH_DEFAULT", Schedulers.trampoline());
@@ -227,6 +587,57 @@ public class RxPaperBookTest {
         foundSubscriber.assertValue(book.book.getAllKeys());
     }
 
+    @Test
+    public void testKeysWithPrefix() throws Exception {
+        RxPaperBook book = RxPaperBook.with("KEYS_PREFIX", Schedulers.trampoline());
+        final ComplexObject value = ComplexObject.random();
+        for (int i = 0; i < 10; i++) {
+            book.write("user:" + i, value).subscribe();
+            book.write("feed:" + i, value).subscribe();
+        }
+        final TestSubscriber<String> allSubscriber = book.keysFlowable().test();
+        allSubscriber.awaitTerminalEvent();
+        allSubscriber.assertNoErrors();
+        allSubscriber.assertValueCount(20);
+        final TestSubscriber<String> prefixSubscriber = book.keysWithPrefix("user:").test();
+        prefixSubscriber.awaitTerminalEvent();
+        prefixSubscriber.assertNoErrors();
+        prefixSubscriber.assertValueCount(10);
+        for (String key : prefixSubscriber.values()) {
+            Assert.assertTrue(key.startsWith("user:"));
+        }
+        // backpressure
+        final TestSubscriber<String> requestedSubscriber = book.keysFlowable().test(3);
+        requestedSubscriber.assertValueCount(3);
+        requestedSubscriber.assertNotComplete();
+        requestedSubscriber.cancel();
+    }
+
+    @Test
+    public void testKeyIndex() throws Exception {
+        RxPaperBook book = RxPaperBook.with("KEY_INDEX", Schedulers.trampoline());
+        RxPaperBook other = RxPaperBook.with("KEY_INDEX", Schedulers.trampoline());
+        final ComplexObject value = ComplexObject.random();
+        book.write("feed:a", value).subscribe();
+        book.write("feed:c", value).subscribe();
+        book.write("user:a", value).subscribe();
+        other.keysWithPrefix("feed:").test().assertValues("feed:a", "feed:c");
+        // kept current
+        book.write("feed:b", value).subscribe();
+        book.delete("feed:c").subscribe();
+        other.keysWithPrefix("feed:").test().assertValues("feed:a", "feed:b");
+        other.keysInRange("feed:b", "user:b").test().assertValues("feed:b", "user:a");
+        final TestSubscriber<Pair<String, ComplexObject>> readSubscriber = other
+                .<ComplexObject>readPrefix("user:").test();
+        readSubscriber.awaitTerminalEvent();
+        readSubscriber.assertNoErrors();
+        readSubscriber.assertValueCount(1);
+        Assert.assertEquals("user:a", readSubscriber.values().get(0).first);
+        Assert.assertEquals(value, readSubscriber.values().get(0).second);
+        book.destroy().subscribe();
+        other.keysWithPrefix("").test().assertNoValues();
+    }
+
     @Test
     public void testDestroy() throws Exception {
         RxPaperBook book = RxPaperBook.with("DESTROY", Schedulers.trampoline());
@@ -309,6 +720,72 @@ public class RxPaperBookTest {
         updatesSubscriber.assertNoErrors();
     }
 
+    @Test
+    public void testUpdatesRouting() throws Exception {
+        RxPaperBook book = RxPaperBook.with("UPDATES_ROUTING", Schedulers.trampoline());
+        final String key = "hello";
+        final String key2 = "you";
+        final ComplexObject value = ComplexObject.random();
+        final ComplexObject value2 = ComplexObject.random();
+        final TestSubscriber<ComplexObject> updatesSubscriber = TestSubscriber.create();
+        final TestSubscriber<ComplexObject> updatesSubscriber2 = TestSubscriber.create();
+        book.observe(key, ComplexObject.class, BackpressureStrategy.MISSING).subscribe(updatesSubscriber);
+        book.observe(key2, ComplexObject.class, BackpressureStrategy.MISSING).subscribe(updatesSubscriber2);
+        book.write(key, value).subscribe();
+        book.write(key2, value2).subscribe();
+        updatesSubscriber.assertValues(value);
+        updatesSubscriber2.assertValues(value2);
+        // resubscription after all observers of a key are gone
+        updatesSubscriber.dispose();
+        final TestSubscriber<ComplexObject> resubscriber = TestSubscriber.create();
+        book.observe(key, ComplexObject.class, BackpressureStrategy.MISSING).subscribe(resubscriber);
+        book.write(key, value2).subscribe();
+        updatesSubscriber.assertValues(value);
+        resubscriber.assertValues(value2);
+    }
+
+    @Test
+    public void testUpdatesShared() throws Exception {
+        RxPaperBook book = RxPaperBook.with("UPDATES_SHARED", Schedulers.trampoline());
+        RxPaperBook otherBook = RxPaperBook.with("UPDATES_SHARED", Schedulers.trampoline());
+        RxPaperBook unrelatedBook = RxPaperBook.with("UPDATES_ROUTING", Schedulers.trampoline());
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        final TestSubscriber<ComplexObject> updatesSubscriber = TestSubscriber.create();
+        otherBook.observe(key, ComplexObject.class, BackpressureStrategy.MISSING).subscribe(updatesSubscriber);
+        unrelatedBook.write(key, ComplexObject.random()).subscribe();
+        updatesSubscriber.assertValueCount(0);
+        book.write(key, value).subscribe();
+        updatesSubscriber.assertValueCount(1);
+        updatesSubscriber.assertValues(value);
+    }
+
+    @Test
+    public void testUpdatesWithInitial() throws Exception {
+        RxPaperBook book = RxPaperBook.with("UPDATES_INITIAL", Schedulers.trampoline());
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        book.write(key, value).subscribe();
+        final TestSubscriber<ComplexObject> updatesSubscriber = TestSubscriber.create();
+        book.observeWithInitial(key, ComplexObject.class, BackpressureStrategy.MISSING).subscribe(updatesSubscriber);
+        updatesSubscriber.assertValues(value);
+        // served from memory while the key is observed
+        book.book.write(key, ComplexObject.random());
+        final TestSubscriber<ComplexObject> memorySubscriber = TestSubscriber.create();
+        book.observeWithInitial(key, ComplexObject.class, BackpressureStrategy.MISSING).subscribe(memorySubscriber);
+        memorySubscriber.assertValues(value);
+        final ComplexObject newValue = ComplexObject.random();
+        book.write(key, newValue).subscribe();
+        updatesSubscriber.assertValues(value, newValue);
+        memorySubscriber.assertValues(value, newValue);
+        // deleted keys have no initial value
+        book.delete(key).subscribe();
+        final TestSubscriber<ComplexObject> deletedSubscriber = TestSubscriber.create();
+        book.observeWithInitial(key, ComplexObject.class, BackpressureStrategy.MISSING).subscribe(deletedSubscriber);
+        deletedSubscriber.assertValueCount(0);
+        deletedSubscriber.assertNoErrors();
+    }
+
     @Test
     public void testUpdatesAllUnchecked() throws Exception {
         RxPaperBook book = RxPaperBook.with("UPDATES_ALL_UNCH", Schedulers.trampoline());
@@ -374,6 +851,71 @@ public class RxPaperBookTest {
         updatesSubscriber.assertNoErrors();
     }
 
+    @Test
+    public void testChanges() throws Exception {
+        RxPaperBook book = RxPaperBook.with("CHANGES", Schedulers.trampoline());
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        final TestSubscriber<ChangeEvent> changesSubscriber = TestSubscriber.create();
+        book.changes(BackpressureStrategy.BUFFER).subscribe(changesSubscriber);
+        book.write(key, value).subscribe();
+        book.delete(key).subscribe();
+        book.destroy().subscribe();
+        changesSubscriber.assertValueCount(3);
+        final List<ChangeEvent> changes = changesSubscriber.values();
+        final ChangeEvent.Written written = (ChangeEvent.Written) changes.get(0);
+        Assert.assertEquals(key, written.key);
+        Assert.assertEquals(value, written.value);
+        Assert.assertEquals(key, ((ChangeEvent.Deleted) changes.get(1)).key);
+        Assert.assertTrue(changes.get(2) instanceof ChangeEvent.Destroyed);
+        Assert.assertTrue(changes.get(0).sequence < changes.get(1).sequence);
+        Assert.assertTrue(changes.get(1).sequence < changes.get(2).sequence);
+        // resume
+        final TestSubscriber<ChangeEvent> resumeSubscriber = book
+                .changes(written.sequence, BackpressureStrategy.BUFFER).test();
+        resumeSubscriber.assertValueCount(2);
+        resumeSubscriber.assertNoErrors();
+        // replayed writes don't keep their value
+        final ChangeEvent.Written replayed = (ChangeEvent.Written) book
+                .changes(written.sequence - 1, BackpressureStrategy.BUFFER).test().values().get(0);
+        Assert.assertEquals(key, replayed.key);
+        Assert.assertNull(replayed.value);
+        for (int i = 0; i < UpdateBus.HISTORY_SIZE; i++) {
+            book.write(key, value).subscribe();
+        }
+        resumeSubscriber.assertValueCount(2 + UpdateBus.HISTORY_SIZE);
+        final TestSubscriber<ChangeEvent> lostSubscriber = book
+                .changes(written.sequence, BackpressureStrategy.BUFFER).test();
+        lostSubscriber.assertError(IllegalArgumentException.class);
+        // a subscriber throwing doesn't stop changes for the others
+        book.changes(BackpressureStrategy.BUFFER).subscribe(new Subscriber<ChangeEvent>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ChangeEvent changeEvent) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        final TestSubscriber<ChangeEvent> survivingSubscriber = book
+                .changes(BackpressureStrategy.BUFFER).test();
+        book.write(key, value).subscribe();
+        book.write(key, value).subscribe();
+        survivingSubscriber.assertValueCount(2);
+        survivingSubscriber.assertNoErrors();
+        book.changes(BackpressureStrategy.BUFFER).test().assertNoErrors().assertNotComplete();
+    }
+
     @Test
     public void testContains() throws Exception {
         RxPaperBook book = RxPaperBook.with("CONTAINS", Schedulers.trampoline());
@@ -422,4 +964,520 @@ public class RxPaperBookTest {
         foundSubscriber.assertNoErrors();
         foundSubscriber.assertValueCount(1);
     }
+
+    @Test
+    public void testRawBytes() throws Exception {
+        RxPaperBook book = RxPaperBook.with("RAW", Schedulers.trampoline());
+        RxPaperBook copy = RxPaperBook.with("RAW_COPY", Schedulers.trampoline()).withCache(10);
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        book.readBytes(key).test().assertError(IllegalArgumentException.class);
+        book.write(key, value).subscribe();
+        final TestObserver<byte[]> bytesSubscriber = book.readBytes(key).test();
+        bytesSubscriber.awaitTerminalEvent();
+        bytesSubscriber.assertNoErrors();
+        final byte[] bytes = bytesSubscriber.values().get(0);
+        Assert.assertEquals(new File(book.book.getPath(key)).length(), bytes.length);
+        copy.write(key, ComplexObject.random()).subscribe();
+        final TestSubscriber<ComplexObject> observer = copy
+                .observeWithInitial(key, ComplexObject.class, BackpressureStrategy.MISSING).test();
+        final TestSubscriber<ChangeEvent> changes = copy.changes(BackpressureStrategy.BUFFER)
+                .test();
+        copy.writeBytes(key, bytes).test().assertComplete();
+        copy.<ComplexObject>read(key).test().assertValues(value);
+        // published as a change without value
+        changes.assertValueCount(1);
+        final ChangeEvent.Written written = (ChangeEvent.Written) changes.values().get(0);
+        Assert.assertEquals(key, written.key);
+        Assert.assertNull(written.value);
+        // new observers start from the raw value
+        copy.observeWithInitial(key, ComplexObject.class, BackpressureStrategy.MISSING).test()
+                .assertValues(value);
+        observer.dispose();
+    }
+
+    @Test
+    public void testCopyAndMove() throws Exception {
+        RxPaperBook source = RxPaperBook.with("COPY_SOURCE", Schedulers.trampoline());
+        RxPaperBook target = RxPaperBook.with("COPY_TARGET", Schedulers.trampoline());
+        final Map<String, ComplexObject> values = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            values.put("user-" + i, ComplexObject.random());
+        }
+        values.put("other", ComplexObject.random());
+        source.writeAll(values).subscribe();
+        final Predicate<String> users = new Predicate<String>() {
+            @Override
+            public boolean test(String key) {
+                return key.startsWith("user-");
+            }
+        };
+        final TestSubscriber<ChangeEvent> targetChanges = target
+                .changes(BackpressureStrategy.BUFFER).test();
+        final TestSubscriber<CopyProgress> copySubscriber = source.copyTo(target, users, 2).test();
+        copySubscriber.awaitTerminalEvent();
+        copySubscriber.assertNoErrors();
+        copySubscriber.assertValueCount(10);
+        final CopyProgress copied = copySubscriber.values().get(9);
+        Assert.assertEquals(10, copied.completedKeys);
+        Assert.assertEquals(10, copied.totalKeys);
+        Assert.assertTrue(copied.bytes > 0);
+        targetChanges.assertValueCount(1);
+        Assert.assertEquals(10, ((ChangeEvent.Imported) targetChanges.values().get(0)).keyCount);
+        target.<ComplexObject>read("user-3").test().assertValues(values.get("user-3"));
+        target.contains("other").test().assertValues(false);
+        source.contains("user-3").test().assertValues(true);
+        final ComplexObject overwritten = ComplexObject.random();
+        target.write("user-3", overwritten).subscribe();
+        final TestSubscriber<ComplexObject> sourceObserver = source
+                .observeWithInitial("user-3", ComplexObject.class, BackpressureStrategy.MISSING)
+                .test();
+        final TestSubscriber<ComplexObject> targetObserver = target
+                .observeWithInitial("user-3", ComplexObject.class, BackpressureStrategy.MISSING)
+                .test();
+        targetObserver.assertValues(overwritten);
+        final TestSubscriber<ChangeEvent> sourceChanges = source
+                .changes(BackpressureStrategy.BUFFER).test();
+        final TestSubscriber<CopyProgress> moveSubscriber = source.moveTo(target, users).test();
+        moveSubscriber.awaitTerminalEvent();
+        moveSubscriber.assertNoErrors();
+        moveSubscriber.assertValueCount(10);
+        sourceChanges.assertValueCount(10);
+        Assert.assertTrue(sourceChanges.values().get(0) instanceof ChangeEvent.Deleted);
+        // new observers start from the values after the move
+        source.observeWithInitial("user-3", ComplexObject.class, BackpressureStrategy.MISSING)
+                .test().assertNoValues();
+        target.observeWithInitial("user-3", ComplexObject.class, BackpressureStrategy.MISSING)
+                .test().assertValues(values.get("user-3"));
+        sourceObserver.dispose();
+        targetObserver.dispose();
+        source.keys().test().assertValues(Arrays.asList("other"));
+        target.keys().test().assertValue(new Predicate<List<String>>() {
+            @Override
+            public boolean test(List<String> keys) {
+                return keys.size() == 10;
+            }
+        });
+    }
+
+    @Test
+    public void testExportImport() throws Exception {
+        RxPaperBook source = RxPaperBook.with("EXPORT", Schedulers.trampoline());
+        RxPaperBook target = RxPaperBook.with("IMPORT", Schedulers.trampoline());
+        final Map<String, ComplexObject> values = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            values.put("key-" + i, ComplexObject.random());
+        }
+        source.writeAll(values).subscribe();
+        final File archive = new File(activity.getActivity().getCacheDir(), "book.archive");
+        source.exportTo(archive, true).test().assertComplete();
+        Assert.assertTrue(archive.length() > 0);
+        target.write("key-7", ComplexObject.random()).subscribe();
+        final TestSubscriber<ComplexObject> observer = target
+                .observeWithInitial("key-7", ComplexObject.class, BackpressureStrategy.MISSING)
+                .test();
+        final TestSubscriber<ChangeEvent> changesSubscriber =
+                target.changes(BackpressureStrategy.BUFFER).test();
+        target.importFrom(archive).test().assertComplete();
+        changesSubscriber.assertValueCount(1);
+        Assert.assertEquals(10, ((ChangeEvent.Imported) changesSubscriber.values().get(0)).keyCount);
+        target.<ComplexObject>read("key-7").test().assertValues(values.get("key-7"));
+        target.observeWithInitial("key-7", ComplexObject.class, BackpressureStrategy.MISSING)
+                .test().assertValues(values.get("key-7"));
+        observer.dispose();
+        target.keys().test().assertValue(new Predicate<List<String>>() {
+            @Override
+            public boolean test(List<String> keys) {
+                return keys.size() == 10;
+            }
+        });
+        Assert.assertTrue(archive.delete());
+        // corrupt counts and lengths fail instead of allocating them
+        target.importFrom(new ByteArrayInputStream(corruptArchive(Integer.MAX_VALUE, 0))).test()
+                .assertError(IOException.class);
+        target.importFrom(new ByteArrayInputStream(corruptArchive(1, Integer.MAX_VALUE))).test()
+                .assertError(IOException.class);
+        target.importFrom(new ByteArrayInputStream(corruptArchive(1, 1024 * 1024))).test()
+                .assertError(IOException.class);
+    }
+
+    private static byte[] corruptArchive(int keyCount, int valueLength) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream archive = new DataOutputStream(bytes);
+        archive.writeInt(0x52585042);
+        archive.writeByte(2);
+        archive.writeByte(0);
+        archive.writeUTF("paper");
+        archive.writeInt(keyCount);
+        archive.writeUTF("key");
+        archive.writeInt(valueLength);
+        archive.write(new byte[16]);
+        archive.flush();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        RxPaperBook book = RxPaperBook.with("CACHE", Schedulers.trampoline()).withCache(10);
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        book.write(key, value).subscribe();
+        book.book.write(key, ComplexObject.random());
+        final TestObserver<ComplexObject> cachedSubscriber = book.<ComplexObject>read(key).test();
+        cachedSubscriber.awaitTerminalEvent();
+        cachedSubscriber.assertNoErrors();
+        cachedSubscriber.assertValues(value);
+        Assert.assertEquals(1, book.cacheStats().hitCount);
+        // notFoundSubscriber
+        String noKey = ":(";
+        book.contains(noKey).test().assertValues(false);
+        book.contains(noKey).test().assertValues(false);
+        Assert.assertEquals(2, book.cacheStats().hitCount);
+        Assert.assertEquals(1, book.cacheStats().missCount);
+        // invalidation
+        book.delete(key).subscribe();
+        book.contains(key).test().assertValues(false);
+        book.<ComplexObject>read(key).test().assertError(IllegalArgumentException.class);
+        // changes through other instances
+        final RxPaperBook other = RxPaperBook.with("CACHE", Schedulers.trampoline());
+        final ComplexObject otherValue = ComplexObject.random();
+        book.write(key, value).subscribe();
+        other.write(key, otherValue).subscribe();
+        book.<ComplexObject>read(key).test().assertValues(otherValue);
+        other.delete(key).subscribe();
+        book.contains(key).test().assertValues(false);
+        book.write(key, value).subscribe();
+        other.destroy().subscribe();
+        book.contains(key).test().assertValues(false);
+        book.write(key, value).subscribe();
+        book.destroy().subscribe();
+        book.contains(key).test().assertValues(false);
+        Assert.assertFalse(book.book.contains(key));
+    }
+
+    @Test
+    public void testHotTier() throws Exception {
+        RxPaperBook book = RxPaperBook.with("HOT_TIER", Schedulers.trampoline())
+                .withHotTier(1, Long.MAX_VALUE);
+        final ComplexObject first = ComplexObject.random();
+        final ComplexObject second = ComplexObject.random();
+        book.write("first", first).subscribe();
+        book.write("second", second).subscribe();
+        // promoted on read, then demoted by the next one
+        book.<ComplexObject>read("first").test().assertValues(first);
+        book.<ComplexObject>read("first").test().assertValues(first);
+        book.<ComplexObject>read("second").test().assertValues(second);
+        book.read(":(").test().assertError(IllegalArgumentException.class);
+        TierStats stats = book.tierStats();
+        Assert.assertEquals(1, stats.hotHits);
+        Assert.assertEquals(2, stats.coldHits);
+        Assert.assertEquals(1, stats.misses);
+        Assert.assertEquals(1, stats.demotions);
+        Assert.assertEquals(1, stats.entries);
+        Assert.assertTrue(stats.bytes > 0);
+        // writes refresh hot values, deletes drop them
+        final ComplexObject updated = ComplexObject.random();
+        book.write("second", updated).subscribe();
+        book.<ComplexObject>read("second").test().assertValues(updated);
+        book.delete("second").subscribe();
+        book.contains("second").test().assertValues(false);
+        Assert.assertEquals(0, book.tierStats().entries);
+        // changes through other instances drop hot values
+        final RxPaperBook other = RxPaperBook.with("HOT_TIER", Schedulers.trampoline());
+        book.<ComplexObject>read("first").test().assertValues(first);
+        other.write("first", updated).subscribe();
+        Assert.assertEquals(0, book.tierStats().entries);
+        book.<ComplexObject>read("first").test().assertValues(updated);
+        other.write("raw", first).subscribe();
+        other.writeBytes("first", other.readBytes("raw").blockingGet()).subscribe();
+        book.<ComplexObject>read("first").test().assertValues(first);
+        other.destroy().subscribe();
+        book.contains("first").test().assertValues(false);
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        RxPaperBook plain = RxPaperBook.with("COMPRESSION", Schedulers.trampoline());
+        RxPaperBook book = plain.withCompression(1024);
+        final List<ComplexObject> large = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            large.add(ComplexObject.random());
+        }
+        final String small = "small";
+        book.write("large", large).subscribe();
+        book.write("small", small).subscribe();
+        plain.write("plain", large).subscribe();
+        // compressed and plain values can be read by any instance
+        book.<List<ComplexObject>>read("large").test().assertValues(large);
+        book.<String>read("small").test().assertValues(small);
+        book.<List<ComplexObject>>read("plain").test().assertValues(large);
+        plain.<List<ComplexObject>>read("large").test().assertValues(large);
+        Assert.assertTrue(new File(plain.book.getPath("large")).length()
+                < new File(plain.book.getPath("plain")).length());
+        final CompressionStats stats = book.compressionStats();
+        Assert.assertEquals(1, stats.compressedCount);
+        Assert.assertEquals(1, stats.skippedCount);
+        Assert.assertEquals(1, stats.decompressedCount);
+        Assert.assertTrue(stats.savedBytes() > 0);
+    }
+
+    @Test
+    public void testPreload() throws Exception {
+        RxPaperBook book = RxPaperBook.with("PRELOAD", Schedulers.trampoline());
+        final ComplexObject first = ComplexObject.random();
+        final ComplexObject second = ComplexObject.random();
+        book.write("first", first).subscribe();
+        book.write("second", second).subscribe();
+        final TestSubscriber<PreloadTiming> preloadSubscriber = book
+                .preload(Arrays.asList("first", "second", "missing"), 1).test();
+        preloadSubscriber.awaitTerminalEvent();
+        preloadSubscriber.assertNoErrors();
+        preloadSubscriber.assertValueCount(3);
+        for (PreloadTiming timing : preloadSubscriber.values()) {
+            Assert.assertEquals(!"missing".equals(timing.key), timing.found);
+            Assert.assertEquals(1, timing.priority);
+        }
+        // reads through any instance are served from memory, once
+        Assert.assertNotNull(book.preloads.get("first"));
+        RxPaperBook.with("PRELOAD", Schedulers.trampoline()).<ComplexObject>read("first").test()
+                .assertValues(first);
+        Assert.assertNull(book.preloads.get("first"));
+        book.<ComplexObject>read("first").test().assertValues(first);
+        // writes drop preloaded values
+        final ComplexObject updated = ComplexObject.random();
+        book.write("second", updated).subscribe();
+        Assert.assertNull(book.preloads.get("second"));
+        book.<ComplexObject>read("second").test().assertValues(updated);
+        // values never read are dropped on release
+        Assert.assertNotNull(book.preloads.get("missing"));
+        book.releasePreloads().test().assertComplete();
+        Assert.assertNull(book.preloads.get("missing"));
+        book.read("missing").test().assertError(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final List<Operation> operations = new ArrayList<>();
+        final List<Long> sizes = new ArrayList<>();
+        RxPaperBook book = RxPaperBook.with("METRICS", Schedulers.trampoline())
+                .withMetrics(new MetricsListener() {
+                    @Override
+                    public void onOperation(Operation operation, String key, long queueNanos,
+                            long executionNanos, long bytes, boolean success) {
+                        operations.add(operation);
+                        sizes.add(bytes);
+                    }
+                });
+        final String key = "hello";
+        book.write(key, ComplexObject.random()).subscribe();
+        book.read(key).subscribe();
+        book.read(":(").test().assertError(IllegalArgumentException.class);
+        book.contains(key).subscribe();
+        Assert.assertEquals(Arrays.asList(Operation.WRITE, Operation.READ, Operation.READ,
+                Operation.CONTAINS), operations);
+        final TestObserver<BookStats> statsSubscriber = book.stats().test();
+        statsSubscriber.awaitTerminalEvent();
+        statsSubscriber.assertNoErrors();
+        final BookStats stats = statsSubscriber.values().get(0);
+        Assert.assertEquals(1, stats.operations.get(Operation.WRITE).count);
+        Assert.assertTrue(stats.operations.get(Operation.WRITE).bytes > 0);
+        Assert.assertEquals(2, stats.operations.get(Operation.READ).count);
+        Assert.assertEquals(1, stats.operations.get(Operation.READ).errorCount);
+        Assert.assertEquals(1, stats.keyCount);
+        Assert.assertTrue(stats.diskBytes > 0);
+        // reads served from memory don't touch storage
+        final RxPaperBook cached = book.withCache(10);
+        sizes.clear();
+        cached.read(key).subscribe();
+        cached.read(key).subscribe();
+        Assert.assertTrue(sizes.get(0) > 0);
+        Assert.assertEquals(0L, (long) sizes.get(1));
+    }
+
+    @Test
+    public void testLogStorage() throws Exception {
+        RxPaperBook book = RxPaperBook.withStorage(new LogStorage(logStoragePath()),
+                Schedulers.trampoline());
+        final String key = "hello";
+        final ComplexObject value = ComplexObject.random();
+        book.write(key, value).test().assertComplete();
+        book.write("other", ComplexObject.random()).test().assertComplete();
+        book.delete("other").test().assertComplete();
+        // instances on the same folder share the log
+        RxPaperBook reopened = RxPaperBook.withStorage(new LogStorage(logStoragePath()),
+                Schedulers.trampoline());
+        reopened.<ComplexObject>read(key).test().assertValues(value);
+        reopened.contains("other").test().assertValues(false);
+        reopened.keys().test().assertValues(Arrays.asList(key));
+        final ComplexObject overwritten = ComplexObject.random();
+        reopened.write(key, overwritten).test().assertComplete();
+        book.<ComplexObject>read(key).test().assertValues(overwritten);
+        reopened.destroy().test().assertComplete();
+        reopened.contains(key).test().assertValues(false);
+    }
+
+    @Test
+    public void testLogStorageRecovery() throws Exception {
+        final LogStorage storage = new LogStorage(logStoragePath());
+        final ComplexObject value = ComplexObject.random();
+        storage.write("kept", value);
+        storage.write("torn", ComplexObject.random());
+        // a crash while appending leaves part of the last record
+        final RandomAccessFile segment = new RandomAccessFile(storage.getPath("torn"), "rw");
+        segment.setLength(segment.length() - 3);
+        segment.close();
+        LogStorage.closeLog(logStoragePath());
+        final LogStorage recovered = new LogStorage(logStoragePath());
+        Assert.assertEquals(value, recovered.read("kept"));
+        Assert.assertFalse(recovered.contains("torn"));
+        // appends continue after the last valid record
+        final ComplexObject appended = ComplexObject.random();
+        recovered.write("appended", appended);
+        LogStorage.closeLog(logStoragePath());
+        final LogStorage reopened = new LogStorage(logStoragePath());
+        Assert.assertEquals(value, reopened.read("kept"));
+        Assert.assertEquals(appended, reopened.read("appended"));
+        Assert.assertFalse(reopened.contains("torn"));
+    }
+
+    @Test
+    public void testLogStorageCompaction() throws Exception {
+        final LogStorage storage = new LogStorage(logStoragePath(),
+                LogStorage.Durability.RELAXED, 4096);
+        final Map<String, ComplexObject> values = new HashMap<>();
+        long written = 0;
+        for (int i = 0; i < 500; i++) {
+            final ComplexObject value = ComplexObject.random();
+            storage.write("key-" + (i % 10), value);
+            values.put("key-" + (i % 10), value);
+            written += storage.sizeOf("key-" + (i % 10));
+        }
+        storage.delete("key-0");
+        values.remove("key-0");
+        // dead records are dropped once they outweigh live ones
+        Assert.assertTrue(storage.getSize() < written);
+        storage.compact();
+        long live = 0;
+        for (String key : values.keySet()) {
+            live += storage.sizeOf(key);
+        }
+        Assert.assertEquals(live, storage.getSize());
+        // the copy of the live records, and the segment taking new writes
+        Assert.assertEquals(2, new File(logStoragePath()).listFiles().length);
+        LogStorage.closeLog(logStoragePath());
+        final LogStorage reopened = new LogStorage(logStoragePath());
+        Assert.assertEquals(values.size(), reopened.getAllKeys().size());
+        for (Map.Entry<String, ComplexObject> entry : values.entrySet()) {
+            Assert.assertEquals(entry.getValue(), reopened.read(entry.getKey()));
+        }
+        Assert.assertFalse(reopened.contains("key-0"));
+    }
+
+    private String logStoragePath() {
+        return new File(activity.getActivity().getFilesDir(), "LOG_STORAGE").getAbsolutePath();
+    }
+
+    /**
+     * Counts the reads reaching storage, signalling each one and holding it until the gate opens.
+     */
+    private static final class CountingStorage implements StorageEngine {
+        final AtomicInteger reads = new AtomicInteger();
+
+        volatile CountDownLatch entered = new CountDownLatch(0);
+
+        volatile CountDownLatch gate = new CountDownLatch(0);
+
+        volatile RuntimeException writeFailure;
+
+        private final StorageEngine storage;
+
+        CountingStorage(StorageEngine storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public <T> void write(String key, T value) {
+            if (null != writeFailure) {
+                throw writeFailure;
+            }
+            storage.write(key, value);
+        }
+
+        @Override
+        public <T> T read(String key) {
+            reads.incrementAndGet();
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return storage.read(key);
+        }
+
+        @Override
+        public byte[] readBytes(String key) {
+            return storage.readBytes(key);
+        }
+
+        @Override
+        public void writeBytes(String key, byte[] bytes) {
+            storage.writeBytes(key, bytes);
+        }
+
+        @Override
+        public boolean storesSerialized() {
+            return storage.storesSerialized();
+        }
+
+        @Override
+        public String getFormat() {
+            return storage.getFormat();
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return storage.contains(key);
+        }
+
+        @Override
+        public void delete(String key) {
+            storage.delete(key);
+        }
+
+        @Override
+        public List<String> getAllKeys() {
+            return storage.getAllKeys();
+        }
+
+        @Override
+        public Iterator<String> keyIterator() {
+            return storage.keyIterator();
+        }
+
+        @Override
+        public void destroy() {
+            storage.destroy();
+        }
+
+        @Override
+        public String getPath() {
+            return storage.getPath();
+        }
+
+        @Override
+        public String getPath(String key) {
+            return storage.getPath(key);
+        }
+
+        @Override
+        public long sizeOf(String key) {
+            return storage.sizeOf(key);
+        }
+
+        @Override
+        public long getSize() {
+            return storage.getSize();
+        }
+    }
 }